@@ -47,6 +47,30 @@ public class BytecodeGenerator {
     emit1(mgenc, RETURN_LOCAL);
   }
 
+  public void emitPUSHSELF(final MethodGenerationContext mgenc) {
+    emit1(mgenc, PUSH_SELF);
+  }
+
+  public void emitPUSHNIL(final MethodGenerationContext mgenc) {
+    emit1(mgenc, PUSH_NIL);
+  }
+
+  public void emitPUSH0(final MethodGenerationContext mgenc) {
+    emit1(mgenc, PUSH_0);
+  }
+
+  public void emitPUSH1(final MethodGenerationContext mgenc) {
+    emit1(mgenc, PUSH_1);
+  }
+
+  public void emitRETURNSELF(final MethodGenerationContext mgenc) {
+    emit1(mgenc, RETURN_SELF);
+  }
+
+  public void emitRETURNFIELD(final MethodGenerationContext mgenc, final byte fieldIndex) {
+    emit2(mgenc, RETURN_FIELD, fieldIndex);
+  }
+
   public void emitRETURNNONLOCAL(final MethodGenerationContext mgenc) {
     emit1(mgenc, RETURN_NON_LOCAL);
   }
@@ -106,20 +130,87 @@ public class BytecodeGenerator {
     emit2(mgenc, PUSH_CONSTANT, literalIndex);
   }
 
+  /**
+   * Emit a forward jump with a yet unknown target.
+   *
+   * @return the index of the jump, to be used to patch the target later
+   */
+  public int emitJUMP(final MethodGenerationContext mgenc) {
+    int idx = mgenc.getNumberOfBytecodes();
+    emit3(mgenc, JUMP, (byte) 0, (byte) 0);
+    return idx;
+  }
+
+  /**
+   * Emit a conditional jump with yet unknown targets for the jump and for
+   * the send that is done when the receiver is not a boolean.
+   *
+   * @return the index of the jump, to be used to patch the targets later
+   */
+  public int emitJUMPIF(final MethodGenerationContext mgenc, final boolean jumpIfTrue) {
+    int idx = mgenc.getNumberOfBytecodes();
+    emit1(mgenc, jumpIfTrue ? JUMP_IF_TRUE : JUMP_IF_FALSE);
+    mgenc.addBytecodeArgument((byte) 0);
+    mgenc.addBytecodeArgument((byte) 0);
+    mgenc.addBytecodeArgument((byte) 0);
+    mgenc.addBytecodeArgument((byte) 0);
+    return idx;
+  }
+
+  public void emitJUMPBACKWARD(final MethodGenerationContext mgenc, final int target) {
+    int offset = mgenc.getNumberOfBytecodes() - target;
+    mgenc.checkJumpOffset(offset);
+    emit3(mgenc, JUMP_BACKWARD, (byte) offset, (byte) (offset >> 8));
+  }
+
+  /**
+   * Emit a jump to the original message send, taken when one of the given
+   * number of elements on top of the stack is not an integer.
+   *
+   * @return the index of the jump, to be used to patch the target later
+   */
+  public int emitJUMPIFNOTINT(final MethodGenerationContext mgenc, final byte count) {
+    int idx = mgenc.getNumberOfBytecodes();
+    emit2(mgenc, JUMP_IF_NOT_INT, count);
+    mgenc.addBytecodeArgument((byte) 0);
+    mgenc.addBytecodeArgument((byte) 0);
+    return idx;
+  }
+
+  /**
+   * Emit the exit test of a counted loop, which jumps when the counter is
+   * beyond the limit.
+   *
+   * @return the index of the jump, to be used to patch the target later
+   */
+  public int emitJUMPIFBEYOND(final MethodGenerationContext mgenc, final byte counter,
+      final byte limit, final boolean downwards) {
+    int idx = mgenc.getNumberOfBytecodes();
+    emit3(mgenc, downwards ? JUMP_IF_LESS : JUMP_IF_GREATER, counter, limit);
+    mgenc.addBytecodeArgument((byte) 0);
+    mgenc.addBytecodeArgument((byte) 0);
+    return idx;
+  }
+
+  public void emitADDTOLOCAL(final MethodGenerationContext mgenc, final byte counter,
+      final byte step) {
+    emit3(mgenc, ADD_TO_LOCAL, counter, step);
+  }
+
   private void emit1(final MethodGenerationContext mgenc, final byte code) {
     mgenc.addBytecode(code);
   }
 
   private void emit2(final MethodGenerationContext mgenc, final byte code, final byte idx) {
     mgenc.addBytecode(code);
-    mgenc.addBytecode(idx);
+    mgenc.addBytecodeArgument(idx);
   }
 
   private void emit3(final MethodGenerationContext mgenc, final byte code, final byte idx,
       final byte ctx) {
     mgenc.addBytecode(code);
-    mgenc.addBytecode(idx);
-    mgenc.addBytecode(ctx);
+    mgenc.addBytecodeArgument(idx);
+    mgenc.addBytecodeArgument(ctx);
   }
 
 }
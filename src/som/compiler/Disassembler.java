@@ -26,18 +26,49 @@
 
 package som.compiler;
 
+import static som.interpreter.Bytecodes.ADD_TO_LOCAL;
+import static som.interpreter.Bytecodes.JUMP;
+import static som.interpreter.Bytecodes.JUMP_BACKWARD;
+import static som.interpreter.Bytecodes.JUMP_IF_FALSE;
+import static som.interpreter.Bytecodes.JUMP_IF_GREATER;
+import static som.interpreter.Bytecodes.JUMP_IF_LESS;
+import static som.interpreter.Bytecodes.JUMP_IF_NOT_INT;
+import static som.interpreter.Bytecodes.JUMP_IF_TRUE;
+import static som.interpreter.Bytecodes.POP_ADD_TO_LOCAL;
 import static som.interpreter.Bytecodes.POP_ARGUMENT;
 import static som.interpreter.Bytecodes.POP_FIELD;
 import static som.interpreter.Bytecodes.POP_LOCAL;
 import static som.interpreter.Bytecodes.PUSH_ARGUMENT;
+import static som.interpreter.Bytecodes.PUSH_ARGUMENT_1;
+import static som.interpreter.Bytecodes.PUSH_ARGUMENT_2;
 import static som.interpreter.Bytecodes.PUSH_BLOCK;
 import static som.interpreter.Bytecodes.PUSH_CONSTANT;
 import static som.interpreter.Bytecodes.PUSH_FIELD;
 import static som.interpreter.Bytecodes.PUSH_GLOBAL;
 import static som.interpreter.Bytecodes.PUSH_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_0;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_1;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_2;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_CONST;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_OUTER_ARG;
+import static som.interpreter.Bytecodes.PUSH_OUTER_LOCAL;
+import static som.interpreter.Bytecodes.RETURN_FIELD;
 import static som.interpreter.Bytecodes.SEND;
+import static som.interpreter.Bytecodes.SEND_INT_ADD;
+import static som.interpreter.Bytecodes.SEND_INT_EQUAL;
+import static som.interpreter.Bytecodes.SEND_INT_LESS;
+import static som.interpreter.Bytecodes.SEND_INT_MUL;
+import static som.interpreter.Bytecodes.SEND_INT_SUB;
+import static som.interpreter.Bytecodes.STORE_FIELD;
+import static som.interpreter.Bytecodes.STORE_LOCAL;
+import static som.interpreter.Bytecodes.STORE_LOCAL_0;
+import static som.interpreter.Bytecodes.STORE_LOCAL_1;
+import static som.interpreter.Bytecodes.STORE_LOCAL_2;
+import static som.interpreter.Bytecodes.STORE_OUTER_LOC;
 import static som.interpreter.Bytecodes.SUPER_SEND;
 import static som.interpreter.Bytecodes.getBytecodeLength;
+import static som.interpreter.Bytecodes.getJumpOffset;
 import static som.interpreter.Bytecodes.getPaddedBytecodeName;
 
 import som.vm.Universe;
@@ -102,10 +133,17 @@ public class Disassembler {
       }
       switch (bytecode) {
         case PUSH_LOCAL:
+        case PUSH_LOCAL_0:
+        case PUSH_LOCAL_1:
+        case PUSH_LOCAL_2:
+        case PUSH_OUTER_LOCAL:
           Universe.errorPrintln("local: " + m.getBytecode(b + 1) + ", context: "
               + m.getBytecode(b + 2));
           break;
         case PUSH_ARGUMENT:
+        case PUSH_ARGUMENT_1:
+        case PUSH_ARGUMENT_2:
+        case PUSH_OUTER_ARG:
           Universe.errorPrintln("argument: " + m.getBytecode(b + 1) + ", context "
               + m.getBytecode(b + 2));
           break;
@@ -138,7 +176,8 @@ public class Disassembler {
           Universe.errorPrintln("argument: " + m.getBytecode(b + 1)
               + ", context: " + m.getBytecode(b + 2));
           break;
-        case POP_FIELD: {
+        case POP_FIELD:
+        case RETURN_FIELD: {
           int idx = m.getBytecode(b + 1);
           String fieldName = ((SSymbol) m.getHolder().getInstanceFields()
                                          .getIndexableField(idx)).getEmbeddedString();
@@ -146,6 +185,11 @@ public class Disassembler {
           break;
         }
         case SEND:
+        case SEND_INT_ADD:
+        case SEND_INT_SUB:
+        case SEND_INT_MUL:
+        case SEND_INT_LESS:
+        case SEND_INT_EQUAL:
           Universe.errorPrintln("(index: " + m.getBytecode(b + 1)
               + ") signature: " + ((SSymbol) m.getConstant(b)).toString());
           break;
@@ -153,6 +197,64 @@ public class Disassembler {
           Universe.errorPrintln("(index: " + m.getBytecode(b + 1)
               + ") signature: " + ((SSymbol) m.getConstant(b)).toString());
           break;
+        case JUMP:
+          Universe.errorPrintln("target: "
+              + (b + getJumpOffset(m.getBytecode(b + 1), m.getBytecode(b + 2))));
+          break;
+        case JUMP_BACKWARD:
+          Universe.errorPrintln("target: "
+              + (b - getJumpOffset(m.getBytecode(b + 1), m.getBytecode(b + 2))));
+          break;
+        case JUMP_IF_TRUE:
+        case JUMP_IF_FALSE:
+          Universe.errorPrintln("target: "
+              + (b + getJumpOffset(m.getBytecode(b + 1), m.getBytecode(b + 2)))
+              + ", not a boolean: "
+              + (b + getJumpOffset(m.getBytecode(b + 3), m.getBytecode(b + 4))));
+          break;
+        case JUMP_IF_NOT_INT:
+          Universe.errorPrintln("count: " + m.getBytecode(b + 1) + ", target: "
+              + (b + getJumpOffset(m.getBytecode(b + 2), m.getBytecode(b + 3))));
+          break;
+        case JUMP_IF_GREATER:
+        case JUMP_IF_LESS:
+          Universe.errorPrintln("counter: " + m.getBytecode(b + 1) + ", limit: "
+              + m.getBytecode(b + 2) + ", target: "
+              + (b + getJumpOffset(m.getBytecode(b + 3), m.getBytecode(b + 4))));
+          break;
+        case ADD_TO_LOCAL:
+          Universe.errorPrintln("counter: " + m.getBytecode(b + 1) + ", step: "
+              + m.getBytecode(b + 2));
+          break;
+        case STORE_LOCAL:
+        case STORE_LOCAL_0:
+        case STORE_LOCAL_1:
+        case STORE_LOCAL_2:
+        case STORE_OUTER_LOC:
+          Universe.errorPrintln("local: " + m.getBytecode(b + 2) + ", context: "
+              + m.getBytecode(b + 3));
+          break;
+        case STORE_FIELD: {
+          int idx = m.getBytecode(b + 2);
+          String fieldName = ((SSymbol) m.getHolder().getInstanceFields()
+                                         .getIndexableField(idx)).getEmbeddedString();
+          Universe.errorPrintln("(index: " + idx + ") field: " + fieldName);
+          break;
+        }
+        case PUSH_LOCAL_CONST:
+          Universe.errorPrintln("local: " + m.getBytecode(b + 1) + ", context: "
+              + m.getBytecode(b + 2) + ", (index: " + m.getBytecode(b + 4) + ") value: "
+              + m.getConstant(b + 3).toString());
+          break;
+        case PUSH_LOCAL_LOCAL:
+          Universe.errorPrintln("local: " + m.getBytecode(b + 1) + ", context: "
+              + m.getBytecode(b + 2) + ", local: " + m.getBytecode(b + 4) + ", context: "
+              + m.getBytecode(b + 5));
+          break;
+        case POP_ADD_TO_LOCAL:
+          Universe.errorPrintln("counter: " + m.getBytecode(b + 2) + ", step: "
+              + m.getBytecode(b + 3));
+          break;
         default:
           Universe.errorPrintln("<incorrect bytecode>");
       }
@@ -26,21 +26,36 @@
 package som.compiler;
 
 import static som.interpreter.Bytecodes.DUP;
+import static som.interpreter.Bytecodes.ADD_TO_LOCAL;
 import static som.interpreter.Bytecodes.HALT;
+import static som.interpreter.Bytecodes.JUMP;
+import static som.interpreter.Bytecodes.JUMP_BACKWARD;
+import static som.interpreter.Bytecodes.JUMP_IF_FALSE;
+import static som.interpreter.Bytecodes.JUMP_IF_GREATER;
+import static som.interpreter.Bytecodes.JUMP_IF_LESS;
+import static som.interpreter.Bytecodes.JUMP_IF_NOT_INT;
+import static som.interpreter.Bytecodes.JUMP_IF_TRUE;
 import static som.interpreter.Bytecodes.POP;
 import static som.interpreter.Bytecodes.POP_ARGUMENT;
 import static som.interpreter.Bytecodes.POP_FIELD;
 import static som.interpreter.Bytecodes.POP_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_0;
+import static som.interpreter.Bytecodes.PUSH_1;
 import static som.interpreter.Bytecodes.PUSH_ARGUMENT;
 import static som.interpreter.Bytecodes.PUSH_BLOCK;
 import static som.interpreter.Bytecodes.PUSH_CONSTANT;
 import static som.interpreter.Bytecodes.PUSH_FIELD;
 import static som.interpreter.Bytecodes.PUSH_GLOBAL;
 import static som.interpreter.Bytecodes.PUSH_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_NIL;
+import static som.interpreter.Bytecodes.PUSH_SELF;
+import static som.interpreter.Bytecodes.RETURN_FIELD;
 import static som.interpreter.Bytecodes.RETURN_LOCAL;
 import static som.interpreter.Bytecodes.RETURN_NON_LOCAL;
+import static som.interpreter.Bytecodes.RETURN_SELF;
 import static som.interpreter.Bytecodes.SEND;
 import static som.interpreter.Bytecodes.SUPER_SEND;
+import static som.interpreter.Bytecodes.getBytecodeLength;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -48,6 +63,7 @@ import java.util.List;
 import som.compiler.Parser.ParseError;
 import som.vm.Universe;
 import som.vmobjects.SAbstractObject;
+import som.vmobjects.SInteger;
 import som.vmobjects.SInvokable;
 import som.vmobjects.SMethod;
 import som.vmobjects.SPrimitive;
@@ -68,6 +84,9 @@ public class MethodGenerationContext {
   private boolean                     finished;
   private final ArrayList<Byte>       bytecode  = new ArrayList<>();
 
+  // index of the last instruction emitted, or -1 if it is not known
+  private int lastInstruction = -1;
+
   /**
    * Constructor used for block methods.
    */
@@ -120,10 +139,85 @@ public class MethodGenerationContext {
       meth.setBytecode(i++, bc);
     }
 
+    if (blockMethod) {
+      meth.setUsesContext(usesContext(meth));
+    } else {
+      setTrivialKind(meth, universe);
+
+      // superinstructions and specialized accesses would hide the
+      // sequences of basic bytecodes from the bytecode profile
+      if (!universe.getInterpreter().isBytecodeProfileEnabled()) {
+        Superinstructions.replaceSequences(meth);
+        SpecializedAccesses.specialize(meth);
+      }
+    }
+
     // return the method - the holder field is to be set later on!
     return meth;
   }
 
+  /**
+   * Determine whether a block accesses any of the frames it is nested in.
+   * Besides variables in outer contexts, fields, non-local returns, and
+   * globals, which send unknownGlobal: to self, need the outer context, and
+   * so do nested blocks that need it.
+   */
+  private static boolean usesContext(final SMethod block) {
+    int i = 0;
+    while (i < block.getNumberOfBytecodes()) {
+      byte bc = block.getBytecode(i);
+      switch (bc) {
+        case PUSH_LOCAL:
+        case PUSH_ARGUMENT:
+        case POP_LOCAL:
+        case POP_ARGUMENT:
+          if (block.getBytecode(i + 2) > 0) {
+            return true;
+          }
+          break;
+        case PUSH_FIELD:
+        case POP_FIELD:
+        case PUSH_GLOBAL:
+        case PUSH_SELF:
+        case RETURN_NON_LOCAL:
+          return true;
+        case PUSH_BLOCK:
+          if (((SMethod) block.getConstant(i)).usesContext()) {
+            return true;
+          }
+          break;
+        default:
+          break;
+      }
+      i += getBytecodeLength(bc);
+    }
+    return false;
+  }
+
+  /**
+   * Recognize trivial methods, which only return a field, self, or a
+   * constant, or only store their argument into a field. The bytecodes
+   * after the first return are not reachable, and are ignored.
+   */
+  private static void setTrivialKind(final SMethod method, final Universe universe) {
+    byte[] bc = method.getBytecodes();
+    if (bc[0] == RETURN_FIELD) {
+      method.setTrivial(SMethod.TRIVIAL_GETTER, bc[1]);
+    } else if (bc[0] == RETURN_SELF) {
+      method.setTrivial(SMethod.TRIVIAL_SELF, 0);
+    } else if (bc.length >= 3 && bc[0] == PUSH_CONSTANT && bc[2] == RETURN_LOCAL) {
+      method.setTrivialConstant(method.getConstant(0));
+    } else if (bc.length >= 2 && bc[1] == RETURN_LOCAL
+        && (bc[0] == PUSH_0 || bc[0] == PUSH_1 || bc[0] == PUSH_NIL)) {
+      method.setTrivialConstant(bc[0] == PUSH_NIL ? universe.nilObject
+          : SInteger.getInteger(bc[0] == PUSH_0 ? 0 : 1));
+    } else if (bc.length >= 8 && method.getNumberOfArguments() == 2
+        && bc[0] == PUSH_ARGUMENT && bc[1] == 1 && bc[2] == 0 && bc[3] == DUP
+        && bc[4] == POP_FIELD && bc[6] == POP && bc[7] == RETURN_SELF) {
+      method.setTrivial(SMethod.TRIVIAL_SETTER, bc[5]);
+    }
+  }
+
   private int computeStackDepth() {
     int depth = 0;
     int maxDepth = 0;
@@ -150,6 +244,13 @@ public class MethodGenerationContext {
           depth++;
           i += 2;
           break;
+        case PUSH_0:
+        case PUSH_1:
+        case PUSH_NIL:
+        case PUSH_SELF:
+          depth++;
+          i++;
+          break;
         case POP:
           depth--;
           i++;
@@ -177,8 +278,30 @@ public class MethodGenerationContext {
         }
         case RETURN_LOCAL:
         case RETURN_NON_LOCAL:
+        case RETURN_SELF:
           i++;
           break;
+        case RETURN_FIELD:
+          i += 2;
+          break;
+        case JUMP:
+        case JUMP_BACKWARD:
+        case ADD_TO_LOCAL:
+          i += 3;
+          break;
+        case JUMP_IF_NOT_INT:
+          i += 4;
+          break;
+        case JUMP_IF_GREATER:
+        case JUMP_IF_LESS:
+          i += 5;
+          break;
+        case JUMP_IF_TRUE:
+        case JUMP_IF_FALSE:
+          // the condition is only popped when it is a boolean, otherwise it
+          // remains the receiver of the send, so we conservatively keep it
+          i += 5;
+          break;
         default:
           throw new IllegalStateException("Illegal bytecode "
               + bytecode.get(i));
@@ -227,6 +350,44 @@ public class MethodGenerationContext {
 
   public void removeLastBytecode() {
     bytecode.remove(bytecode.size() - 1);
+    lastInstruction = -1;
+  }
+
+  public void removeBytecodesFrom(final int index) {
+    while (bytecode.size() > index) {
+      bytecode.remove(bytecode.size() - 1);
+    }
+    lastInstruction = -1;
+  }
+
+  public int getNumberOfBytecodes() {
+    return bytecode.size();
+  }
+
+  public int getLastInstructionIndex() {
+    return lastInstruction;
+  }
+
+  /**
+   * @return the last instruction, or HALT if it is not known
+   */
+  public byte getLastInstruction() {
+    return lastInstruction == -1 ? HALT : bytecode.get(lastInstruction);
+  }
+
+  public byte getLastInstructionOperand() {
+    return bytecode.get(lastInstruction + 1);
+  }
+
+  /**
+   * @return the block method, if the last instruction is a PUSH_BLOCK,
+   *         null otherwise
+   */
+  public SMethod getLastPushedBlock() {
+    if (lastInstruction == -1 || bytecode.get(lastInstruction) != PUSH_BLOCK) {
+      return null;
+    }
+    return (SMethod) literals.get(bytecode.get(lastInstruction + 1));
   }
 
   public boolean isBlockMethod() {
@@ -304,9 +465,273 @@ public class MethodGenerationContext {
   }
 
   public void addBytecode(final byte code) {
+    lastInstruction = bytecode.size();
     bytecode.add(code);
   }
 
+  public void addBytecodeArgument(final byte code) {
+    bytecode.add(code);
+  }
+
+  public void checkJumpOffset(final int offset) {
+    if (offset < 0 || offset > 0xFFFF) {
+      throw new IllegalStateException("The method "
+          + holderGenc.getName().getEmbeddedString() + ">>" + signature
+          + " is too large, jump offset out of range: " + offset);
+    }
+  }
+
+  /**
+   * Set the offset of the jump at the given index so that it jumps to the
+   * target. The operand is the index of the offset relative to the jump.
+   */
+  public void patchJumpOffset(final int jumpIndex, final int operand, final int target) {
+    int offset = target - jumpIndex;
+    checkJumpOffset(offset);
+    bytecode.set(jumpIndex + operand, (byte) offset);
+    bytecode.set(jumpIndex + operand + 1, (byte) (offset >> 8));
+
+    // the last instruction is not the only way to reach the end of the code
+    // anymore, and must not be combined with the following one
+    if (target == bytecode.size()) {
+      lastInstruction = -1;
+    }
+  }
+
+  /**
+   * Check whether the literals of the given blocks would still fit into the
+   * literal table of this method when they are inlined, together with the
+   * given number of literals used by the inlined code itself.
+   */
+  public boolean hasLiteralCapacityFor(final int ownLiterals, final SMethod... blocks) {
+    int needed = ownLiterals;
+    for (SMethod block : blocks) {
+      needed += block.getNumberOfLiterals();
+    }
+    return literals.size() + needed <= Byte.MAX_VALUE;
+  }
+
+  /**
+   * Check whether a block nested in the given block accesses the block's
+   * arguments or locals. When the block is inlined into a loop, these
+   * variables are shared by all iterations, and a nested block would see
+   * later values instead of the ones of its own iteration.
+   */
+  public static boolean hasCapturedVariables(final SMethod block) {
+    return hasAccessesToContext(block, 0, false);
+  }
+
+  /**
+   * Check whether the block assigns its first argument. A counted loop
+   * uses its counter as the argument of the inlined body, which must not
+   * change it.
+   */
+  public static boolean assignsFirstArgument(final SMethod block) {
+    int i = 0;
+    while (i < block.getNumberOfBytecodes()) {
+      byte bc = block.getBytecode(i);
+      if (bc == POP_ARGUMENT && block.getBytecode(i + 1) == 1
+          && block.getBytecode(i + 2) == 0) {
+        return true;
+      }
+      i += getBytecodeLength(bc);
+    }
+    return false;
+  }
+
+  private static boolean hasAccessesToContext(final SMethod block, final int depth,
+      final boolean checkAccesses) {
+    int i = 0;
+    while (i < block.getNumberOfBytecodes()) {
+      byte bc = block.getBytecode(i);
+      if (checkAccesses
+          && (bc == PUSH_LOCAL || bc == POP_LOCAL || bc == PUSH_ARGUMENT
+              || bc == POP_ARGUMENT)
+          && block.getBytecode(i + 2) == depth) {
+        return true;
+      }
+      if (bc == PUSH_BLOCK
+          && hasAccessesToContext((SMethod) block.getConstant(i), depth + 1, true)) {
+        return true;
+      }
+      i += getBytecodeLength(bc);
+    }
+    return false;
+  }
+
+  public byte addInlinedLocal() {
+    // the name can not be written in SOM code and will never be found by
+    // findVar, because the variables of inlined blocks are not visible
+    // to the code following the block
+    locals.add("$inlined");
+    return (byte) (locals.size() - 1);
+  }
+
+  /**
+   * Create a block that evaluates to itself, with which inlined code can
+   * recognize whether the receiver of a send evaluated the block.
+   */
+  public static SMethod newSelfReturningBlock(final Universe universe) {
+    SMethod block = universe.newMethod(universe.symbolFor("$block method"), 4, 0, 1, null);
+    block.setBytecode(0, PUSH_ARGUMENT);
+    block.setBytecode(1, (byte) 0);
+    block.setBytecode(2, (byte) 0);
+    block.setBytecode(3, RETURN_LOCAL);
+    block.setUsesContext(false);
+    return block;
+  }
+
+  /**
+   * Inline the code of the given block into this method. The arguments and
+   * locals of the block become locals of this method, accesses to outer
+   * variables are adjusted by one context level, and the final return of the
+   * block is dropped, so that the block's value remains on the stack. The
+   * locals are set to nil whenever the inlined code is entered, as they
+   * would be in a new activation of the block.
+   *
+   * @param argumentLocals the locals that hold the values of the block's
+   *          arguments, the block itself excluded
+   */
+  public void inlineBlock(final SMethod block, final Parser parser, final Universe universe,
+      final byte... argumentLocals) throws ParseError {
+    assert argumentLocals.length == block.getNumberOfArguments() - 1;
+    byte[] argumentIndexes = new byte[block.getNumberOfArguments()];
+    System.arraycopy(argumentLocals, 0, argumentIndexes, 1, argumentLocals.length);
+    byte[] localIndexes = new byte[block.getNumberOfLocals()];
+    for (int i = 0; i < localIndexes.length; i++) {
+      localIndexes[i] = addInlinedLocal();
+    }
+
+    byte[] code = adaptVariableAccesses(block, 0, argumentIndexes, localIndexes);
+
+    for (byte local : localIndexes) {
+      addBytecode(PUSH_NIL);
+      addBytecode(POP_LOCAL);
+      addBytecodeArgument(local);
+      addBytecodeArgument((byte) 0);
+    }
+
+    int i = 0;
+    while (i < code.length) {
+      byte bc = code[i];
+      int length = getBytecodeLength(bc);
+
+      switch (bc) {
+        case PUSH_BLOCK: {
+          SMethod nested = adaptBlockAfterOuterInlined((SMethod) block.getConstant(i), 1,
+              argumentIndexes, localIndexes, universe);
+          addBytecode(PUSH_BLOCK);
+          addBytecodeArgument(addLiteral(nested, parser));
+          break;
+        }
+        case PUSH_CONSTANT:
+        case PUSH_GLOBAL:
+        case SEND:
+        case SUPER_SEND: {
+          SAbstractObject lit = block.getConstant(i);
+          addLiteralIfAbsent(lit, parser);
+          addBytecode(bc);
+          addBytecodeArgument(findLiteralIndex(lit));
+          break;
+        }
+        case RETURN_LOCAL: {
+          // the final return of the block is dropped, its result is the
+          // value of the inlined block
+          if (i + length != code.length) {
+            addBytecode(bc);
+          }
+          break;
+        }
+        case RETURN_NON_LOCAL: {
+          // in a method, a non-local return from an inlined block is a
+          // normal return
+          addBytecode(blockMethod ? RETURN_NON_LOCAL : RETURN_LOCAL);
+          break;
+        }
+        default: {
+          addBytecode(bc);
+          for (int j = 1; j < length; j++) {
+            addBytecodeArgument(code[i + j]);
+          }
+          break;
+        }
+      }
+      i += length;
+    }
+  }
+
+  /**
+   * Create a copy of a block nested in an inlined block. Accesses to the
+   * variables of the inlined block, which is depth levels out, are redirected
+   * to the locals that replace them, and accesses to variables further out
+   * skip one context level less.
+   */
+  private static SMethod adaptBlockAfterOuterInlined(final SMethod block, final int depth,
+      final byte[] argumentIndexes, final byte[] localIndexes, final Universe universe) {
+    byte[] code = adaptVariableAccesses(block, depth, argumentIndexes, localIndexes);
+
+    List<SAbstractObject> blockLiterals = new ArrayList<>(block.getNumberOfLiterals());
+    for (int i = 0; i < block.getNumberOfLiterals(); i++) {
+      SAbstractObject lit = block.getLiteral(i);
+      if (lit instanceof SMethod) {
+        lit = adaptBlockAfterOuterInlined((SMethod) lit, depth + 1, argumentIndexes,
+            localIndexes, universe);
+      }
+      blockLiterals.add(lit);
+    }
+
+    SMethod result = universe.newMethod(block.getSignature(), code.length,
+        block.getNumberOfLocals(), block.getMaximumNumberOfStackElements(), blockLiterals);
+    for (int i = 0; i < code.length; i++) {
+      result.setBytecode(i, code[i]);
+    }
+    result.setUsesContext(block.usesContext());
+    return result;
+  }
+
+  /**
+   * Copy the bytecodes of a block, with the accesses to the variables of the
+   * inlined block, which is depth levels out, redirected to the given
+   * locals. In the inlined block itself, this includes the counter, limit,
+   * and step of the counted loops inlined into it, which are locals of the
+   * block as well.
+   */
+  private static byte[] adaptVariableAccesses(final SMethod block, final int depth,
+      final byte[] argumentIndexes, final byte[] localIndexes) {
+    byte[] code = new byte[block.getNumberOfBytecodes()];
+    for (int i = 0; i < code.length; i++) {
+      code[i] = block.getBytecode(i);
+    }
+
+    int i = 0;
+    while (i < code.length) {
+      byte bc = code[i];
+      if (bc == PUSH_LOCAL || bc == POP_LOCAL || bc == PUSH_ARGUMENT || bc == POP_ARGUMENT) {
+        byte idx = code[i + 1];
+        byte ctx = code[i + 2];
+
+        if (ctx == depth) {
+          if (bc == PUSH_LOCAL || bc == POP_LOCAL) {
+            code[i + 1] = localIndexes[idx];
+          } else {
+            // the block itself, argument 0, is not accessible from SOM code
+            assert idx > 0;
+            code[i] = bc == PUSH_ARGUMENT ? PUSH_LOCAL : POP_LOCAL;
+            code[i + 1] = argumentIndexes[idx];
+          }
+        } else if (ctx > depth) {
+          code[i + 2] = (byte) (ctx - 1);
+        }
+      } else if ((bc == JUMP_IF_GREATER || bc == JUMP_IF_LESS || bc == ADD_TO_LOCAL)
+          && depth == 0) {
+        code[i + 1] = localIndexes[code[i + 1]];
+        code[i + 2] = localIndexes[code[i + 2]];
+      }
+      i += getBytecodeLength(bc);
+    }
+    return code;
+  }
+
   public byte findLiteralIndex(final SAbstractObject lit) {
     return (byte) literals.indexOf(lit);
   }
@@ -58,6 +58,8 @@ import static som.compiler.Symbol.Primitive;
 import static som.compiler.Symbol.STString;
 import static som.compiler.Symbol.Separator;
 import static som.compiler.Symbol.Star;
+import static som.interpreter.Bytecodes.PUSH_FIELD;
+import static som.interpreter.Bytecodes.PUSH_SELF;
 
 import java.io.Reader;
 import java.math.BigInteger;
@@ -376,8 +378,7 @@ public class Parser {
     // be popped off the stack and a ^self be generated
     if (!mgenc.isFinished()) {
       bcGen.emitPOP(mgenc);
-      bcGen.emitPUSHARGUMENT(mgenc, (byte) 0, (byte) 0);
-      bcGen.emitRETURNLOCAL(mgenc);
+      bcGen.emitRETURNSELF(mgenc);
       mgenc.setFinished();
     }
 
@@ -449,9 +450,7 @@ public class Parser {
       }
       if (mgenc.isBlockMethod() && !mgenc.hasBytecodes()) {
         // if the block is empty, we need to return nil
-        SSymbol nilSym = universe.symbolFor("nil");
-        mgenc.addLiteralIfAbsent(nilSym, this);
-        bcGen.emitPUSHGLOBAL(mgenc, nilSym);
+        bcGen.emitPUSHNIL(mgenc);
       }
       bcGen.emitRETURNLOCAL(mgenc);
       mgenc.setFinished();
@@ -459,8 +458,7 @@ public class Parser {
       // it does not matter whether a period has been seen, as the end of
       // the method has been found (EndTerm) - so it is safe to emit a "return
       // self"
-      bcGen.emitPUSHARGUMENT(mgenc, (byte) 0, (byte) 0);
-      bcGen.emitRETURNLOCAL(mgenc);
+      bcGen.emitRETURNSELF(mgenc);
       mgenc.setFinished();
     } else {
       expression(mgenc);
@@ -476,6 +474,13 @@ public class Parser {
 
     if (mgenc.isBlockMethod()) {
       bcGen.emitRETURNNONLOCAL(mgenc);
+    } else if (mgenc.getLastInstruction() == PUSH_SELF) {
+      mgenc.removeLastBytecode();
+      bcGen.emitRETURNSELF(mgenc);
+    } else if (mgenc.getLastInstruction() == PUSH_FIELD) {
+      byte fieldIndex = mgenc.getLastInstructionOperand();
+      mgenc.removeBytecodesFrom(mgenc.getLastInstructionIndex());
+      bcGen.emitRETURNFIELD(mgenc, fieldIndex);
     } else {
       bcGen.emitRETURNLOCAL(mgenc);
     }
@@ -641,16 +646,30 @@ public class Parser {
 
   private void keywordMessage(final MethodGenerationContext mgenc,
       final boolean superSend) throws ProgramDefinitionError {
+    SMethod receiverBlock = superSend ? null : mgenc.getLastPushedBlock();
+    int receiverIndex = mgenc.getLastInstructionIndex();
+
     StringBuilder kw = new StringBuilder();
+    List<Integer> argumentIndexes = new ArrayList<>();
+    List<SMethod> blockArguments = new ArrayList<>();
     do {
       kw.append(keyword());
+      int argumentIndex = mgenc.getNumberOfBytecodes();
+      argumentIndexes.add(argumentIndex);
       formula(mgenc);
+      boolean isLiteral = mgenc.getLastInstructionIndex() == argumentIndex;
+      blockArguments.add(isLiteral ? mgenc.getLastPushedBlock() : null);
     } while (sym == Keyword);
 
     SSymbol msg = universe.symbolFor(kw.toString());
 
     mgenc.addLiteralIfAbsent(msg, this);
 
+    if (!superSend && inlineControlStructure(mgenc, msg, receiverBlock, receiverIndex,
+        argumentIndexes, blockArguments)) {
+      return;
+    }
+
     if (superSend) {
       bcGen.emitSUPERSEND(mgenc, msg);
     } else {
@@ -658,6 +677,269 @@ public class Parser {
     }
   }
 
+  /**
+   * Inline the literal blocks of ifTrue:, ifFalse:, ifTrue:ifFalse:,
+   * ifFalse:ifTrue:, and:, or:, whileTrue:, and whileFalse: by using jumps,
+   * and of to:do:, to:by:do:, downTo:do:, and timesRepeat: as counted loops.
+   * If the receiver at run time is not a boolean or an integer, respectively,
+   * the code continues with the normal send of the message, so that the
+   * semantics for other receivers are unchanged.
+   *
+   * @return true, if the message was inlined
+   */
+  private boolean inlineControlStructure(final MethodGenerationContext mgenc,
+      final SSymbol msg, final SMethod receiverBlock, final int receiverIndex,
+      final List<Integer> argumentIndexes, final List<SMethod> blockArguments)
+      throws ParseError {
+    int firstArgumentIndex = argumentIndexes.get(0);
+    int lastArgumentIndex = argumentIndexes.get(argumentIndexes.size() - 1);
+    SMethod lastBlock = blockArguments.get(blockArguments.size() - 1);
+
+    switch (msg.getEmbeddedString()) {
+      case "ifTrue:":
+        return inlineIf(mgenc, msg, firstArgumentIndex, blockArguments.get(0), false, "nil");
+      case "ifFalse:":
+        return inlineIf(mgenc, msg, firstArgumentIndex, blockArguments.get(0), true, "nil");
+      case "and:":
+        return inlineIf(mgenc, msg, firstArgumentIndex, blockArguments.get(0), false, "false");
+      case "or:":
+        return inlineIf(mgenc, msg, firstArgumentIndex, blockArguments.get(0), true, "true");
+      case "ifTrue:ifFalse:":
+        return inlineIfElse(mgenc, msg, firstArgumentIndex, blockArguments.get(0),
+            blockArguments.get(1), false);
+      case "ifFalse:ifTrue:":
+        return inlineIfElse(mgenc, msg, firstArgumentIndex, blockArguments.get(0),
+            blockArguments.get(1), true);
+      case "whileTrue:":
+        return inlineWhile(mgenc, msg, receiverIndex, receiverBlock, blockArguments.get(0),
+            false);
+      case "whileFalse:":
+        return inlineWhile(mgenc, msg, receiverIndex, receiverBlock, blockArguments.get(0),
+            true);
+      case "to:do:":
+        return inlineCountedLoop(mgenc, msg, lastArgumentIndex, lastBlock, 2, 1);
+      case "to:by:do:":
+        return inlineCountedLoop(mgenc, msg, lastArgumentIndex, lastBlock, 3, 0);
+      case "downTo:do:":
+        return inlineCountedLoop(mgenc, msg, lastArgumentIndex, lastBlock, 2, -1);
+      case "timesRepeat:":
+        return inlineCountedLoop(mgenc, msg, lastArgumentIndex, lastBlock, 1, 1);
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isInlinable(final MethodGenerationContext mgenc,
+      final SMethod... blocks) {
+    for (SMethod block : blocks) {
+      // only blocks without arguments, the first argument is the block itself
+      if (block == null || block.getNumberOfArguments() != 1) {
+        return false;
+      }
+    }
+    // keep room for one more literal used by the inlined code itself
+    return mgenc.hasLiteralCapacityFor(1, blocks);
+  }
+
+  /**
+   * Inline a counted loop. The receiver and the other arguments are already
+   * on the stack. Without an explicit step, the given step is used, and
+   * timesRepeat:, which only has the receiver, counts from 1 to the receiver.
+   * Like the implementations in Integer, the loop evaluates to the receiver.
+   * As the variables of the body are shared by all iterations, bodies with
+   * nested blocks that access them are not inlined, and the locals of the
+   * body are set to nil in each iteration. The argument of the body is the
+   * counter, so bodies that assign it are not inlined either.
+   *
+   * @param numIntegers the number of values on the stack, i.e., the receiver,
+   *          limit, and step, if given
+   * @param step the step of the loop, or 0, if the step is on the stack
+   */
+  private boolean inlineCountedLoop(final MethodGenerationContext mgenc, final SSymbol msg,
+      final int blockIndex, final SMethod body, final int numIntegers, final long step)
+      throws ParseError {
+    boolean timesRepeat = numIntegers == 1;
+    int numBlockArguments = timesRepeat ? 1 : 2;
+    if (body == null || body.getNumberOfArguments() != numBlockArguments
+        || !mgenc.hasLiteralCapacityFor(1, body)
+        || MethodGenerationContext.hasCapturedVariables(body)
+        || MethodGenerationContext.assignsFirstArgument(body)) {
+      return false;
+    }
+
+    SInteger stepLit = universe.newInteger(step);
+    mgenc.removeBytecodesFrom(blockIndex);
+
+    byte counter = mgenc.addInlinedLocal();
+    byte limit = mgenc.addInlinedLocal();
+    byte stepLocal = mgenc.addInlinedLocal();
+
+    int typeCheck = bcGen.emitJUMPIFNOTINT(mgenc, (byte) numIntegers);
+    if (step == 0) {
+      bcGen.emitPOPLOCAL(mgenc, stepLocal, (byte) 0);
+    } else {
+      genPushConstant(mgenc, stepLit);
+      bcGen.emitPOPLOCAL(mgenc, stepLocal, (byte) 0);
+    }
+
+    if (timesRepeat) {
+      bcGen.emitDUP(mgenc);
+      bcGen.emitPOPLOCAL(mgenc, limit, (byte) 0);
+      // timesRepeat: has no explicit step and counts upwards from 1
+      bcGen.emitPUSH1(mgenc);
+      bcGen.emitPOPLOCAL(mgenc, counter, (byte) 0);
+    } else {
+      bcGen.emitPOPLOCAL(mgenc, limit, (byte) 0);
+      bcGen.emitDUP(mgenc);
+      bcGen.emitPOPLOCAL(mgenc, counter, (byte) 0);
+    }
+
+    int loopStart = mgenc.getNumberOfBytecodes();
+    int exitJump = bcGen.emitJUMPIFBEYOND(mgenc, counter, limit, step < 0);
+    if (timesRepeat) {
+      mgenc.inlineBlock(body, this, universe);
+    } else {
+      mgenc.inlineBlock(body, this, universe, counter);
+    }
+    bcGen.emitPOP(mgenc);
+    bcGen.emitADDTOLOCAL(mgenc, counter, stepLocal);
+    bcGen.emitJUMPBACKWARD(mgenc, loopStart);
+
+    mgenc.patchJumpOffset(typeCheck, 2, mgenc.getNumberOfBytecodes());
+    bcGen.emitPUSHBLOCK(mgenc, body);
+    bcGen.emitSEND(mgenc, msg);
+
+    mgenc.patchJumpOffset(exitJump, 3, mgenc.getNumberOfBytecodes());
+    return true;
+  }
+
+  private boolean inlineIf(final MethodGenerationContext mgenc, final SSymbol msg,
+      final int argumentIndex, final SMethod block, final boolean jumpIfTrue,
+      final String otherwise) throws ParseError {
+    if (!isInlinable(mgenc, block)) {
+      return false;
+    }
+
+    mgenc.removeBytecodesFrom(argumentIndex);
+
+    int condJump = bcGen.emitJUMPIF(mgenc, jumpIfTrue);
+    mgenc.inlineBlock(block, this, universe);
+    int endJump = bcGen.emitJUMP(mgenc);
+
+    mgenc.patchJumpOffset(condJump, 1, mgenc.getNumberOfBytecodes());
+    genPushGlobal(mgenc, universe.symbolFor(otherwise));
+    int otherwiseEndJump = bcGen.emitJUMP(mgenc);
+
+    mgenc.patchJumpOffset(condJump, 3, mgenc.getNumberOfBytecodes());
+    bcGen.emitPUSHBLOCK(mgenc, block);
+    bcGen.emitSEND(mgenc, msg);
+
+    mgenc.patchJumpOffset(endJump, 1, mgenc.getNumberOfBytecodes());
+    mgenc.patchJumpOffset(otherwiseEndJump, 1, mgenc.getNumberOfBytecodes());
+    return true;
+  }
+
+  private boolean inlineIfElse(final MethodGenerationContext mgenc, final SSymbol msg,
+      final int argumentIndex, final SMethod first, final SMethod second,
+      final boolean jumpIfTrue) throws ParseError {
+    if (!isInlinable(mgenc, first, second)) {
+      return false;
+    }
+
+    mgenc.removeBytecodesFrom(argumentIndex);
+
+    int condJump = bcGen.emitJUMPIF(mgenc, jumpIfTrue);
+    mgenc.inlineBlock(first, this, universe);
+    int endJump = bcGen.emitJUMP(mgenc);
+
+    mgenc.patchJumpOffset(condJump, 1, mgenc.getNumberOfBytecodes());
+    mgenc.inlineBlock(second, this, universe);
+    int secondEndJump = bcGen.emitJUMP(mgenc);
+
+    mgenc.patchJumpOffset(condJump, 3, mgenc.getNumberOfBytecodes());
+    bcGen.emitPUSHBLOCK(mgenc, first);
+    bcGen.emitPUSHBLOCK(mgenc, second);
+    bcGen.emitSEND(mgenc, msg);
+
+    mgenc.patchJumpOffset(endJump, 1, mgenc.getNumberOfBytecodes());
+    mgenc.patchJumpOffset(secondEndJump, 1, mgenc.getNumberOfBytecodes());
+    return true;
+  }
+
+  /**
+   * Inline a while loop. Blocks nested in the condition or the body that
+   * access their variables prevent the inlining, because the variables of
+   * inlined blocks are shared by all iterations.
+   *
+   * If the condition is not a boolean, the loop continues like the
+   * implementation in Block, which sends ifFalse:, or ifTrue: for
+   * whileFalse:, to the value of the condition with a block that ends the
+   * loop. Since the condition was already evaluated, the body follows, and
+   * the send of the original message does the remaining iterations.
+   */
+  private boolean inlineWhile(final MethodGenerationContext mgenc, final SSymbol msg,
+      final int receiverIndex, final SMethod condition, final SMethod body,
+      final boolean whileFalse) throws ParseError {
+    if (!isInlinable(mgenc, condition, body)
+        || !mgenc.hasLiteralCapacityFor(5, condition, body)
+        || MethodGenerationContext.hasCapturedVariables(condition)
+        || MethodGenerationContext.hasCapturedVariables(body)) {
+      return false;
+    }
+
+    mgenc.removeBytecodesFrom(receiverIndex);
+
+    int loopStart = mgenc.getNumberOfBytecodes();
+    mgenc.inlineBlock(condition, this, universe);
+    int condJump = bcGen.emitJUMPIF(mgenc, whileFalse);
+    mgenc.inlineBlock(body, this, universe);
+    bcGen.emitPOP(mgenc);
+    bcGen.emitJUMPBACKWARD(mgenc, loopStart);
+
+    mgenc.patchJumpOffset(condJump, 1, mgenc.getNumberOfBytecodes());
+    bcGen.emitPUSHNIL(mgenc);
+    int endJump = bcGen.emitJUMP(mgenc);
+
+    // the condition was not a boolean, the block that ends the loop
+    // evaluates to itself, which tells whether the condition evaluated it
+    mgenc.patchJumpOffset(condJump, 3, mgenc.getNumberOfBytecodes());
+    SMethod exitBlock = MethodGenerationContext.newSelfReturningBlock(universe);
+    byte exitBlockLocal = mgenc.addInlinedLocal();
+    mgenc.addLiteral(exitBlock, this);
+    bcGen.emitPUSHBLOCK(mgenc, exitBlock);
+    bcGen.emitDUP(mgenc);
+    bcGen.emitPOPLOCAL(mgenc, exitBlockLocal, (byte) 0);
+    sendMessage(mgenc, whileFalse ? "ifTrue:" : "ifFalse:");
+    bcGen.emitPUSHLOCAL(mgenc, exitBlockLocal, (byte) 0);
+    sendMessage(mgenc, "==");
+    int exitJump = bcGen.emitJUMPIF(mgenc, true);
+
+    bcGen.emitPUSHBLOCK(mgenc, body);
+    sendMessage(mgenc, "value");
+    bcGen.emitPOP(mgenc);
+    bcGen.emitPUSHBLOCK(mgenc, condition);
+    bcGen.emitPUSHBLOCK(mgenc, body);
+    bcGen.emitSEND(mgenc, msg);
+    int sendEndJump = bcGen.emitJUMP(mgenc);
+
+    // == did not answer a boolean, which is taken as the end of the loop
+    mgenc.patchJumpOffset(exitJump, 3, mgenc.getNumberOfBytecodes());
+    bcGen.emitPOP(mgenc);
+    mgenc.patchJumpOffset(exitJump, 1, mgenc.getNumberOfBytecodes());
+    bcGen.emitPUSHNIL(mgenc);
+
+    mgenc.patchJumpOffset(endJump, 1, mgenc.getNumberOfBytecodes());
+    mgenc.patchJumpOffset(sendEndJump, 1, mgenc.getNumberOfBytecodes());
+    return true;
+  }
+
+  private void sendMessage(final MethodGenerationContext mgenc, final String selector)
+      throws ParseError {
+    SSymbol msg = universe.symbolFor(selector);
+    mgenc.addLiteralIfAbsent(msg, this);
+    bcGen.emitSEND(mgenc, msg);
+  }
+
   private void formula(final MethodGenerationContext mgenc) throws ProgramDefinitionError {
     boolean superSend = binaryOperand(mgenc);
 
@@ -707,8 +989,7 @@ public class Parser {
     } else {
       lit = literalDecimal(false);
     }
-    mgenc.addLiteralIfAbsent(lit, this);
-    bcGen.emitPUSHCONSTANT(mgenc, lit);
+    genPushConstant(mgenc, lit);
   }
 
   private SAbstractObject literalDecimal(final boolean isNegative) throws ParseError {
@@ -809,9 +1090,7 @@ public class Parser {
     int i = 1;
 
     while (sym != EndTerm) {
-      SInteger pushIndex = universe.newInteger(i);
-      mgenc.addLiteralIfAbsent(pushIndex, this);
-      bcGen.emitPUSHCONSTANT(mgenc, pushIndex);
+      genPushConstant(mgenc, universe.newInteger(i));
       literal(mgenc);
       bcGen.emitSEND(mgenc, atPutMessage);
       i += 1;
@@ -871,9 +1150,7 @@ public class Parser {
     if (!mgenc.isFinished()) {
       if (!mgenc.hasBytecodes()) {
         // if the block is empty, we need to return nil
-        SSymbol nilSym = universe.symbolFor("nil");
-        mgenc.addLiteralIfAbsent(nilSym, this);
-        bcGen.emitPUSHGLOBAL(mgenc, nilSym);
+        bcGen.emitPUSHNIL(mgenc);
       }
       bcGen.emitRETURNLOCAL(mgenc);
       mgenc.markAsFinished();
@@ -908,7 +1185,9 @@ public class Parser {
         (byte) 0, (byte) 0, false);
 
     if (mgenc.findVar(var, tri)) {
-      if (tri.getZ()) {
+      if (tri.getZ() && tri.getX() == 0 && var.equals("self")) {
+        bcGen.emitPUSHSELF(mgenc);
+      } else if (tri.getZ()) {
         bcGen.emitPUSHARGUMENT(mgenc, tri.getX(), tri.getY());
       } else {
         bcGen.emitPUSHLOCAL(mgenc, tri.getX(), tri.getY());
@@ -920,13 +1199,33 @@ public class Parser {
         mgenc.addLiteralIfAbsent(fieldName, this);
         bcGen.emitPUSHFIELD(mgenc, fieldName);
       } else {
-        SSymbol global = identifier;
-        mgenc.addLiteralIfAbsent(global, this);
-        bcGen.emitPUSHGLOBAL(mgenc, global);
+        genPushGlobal(mgenc, identifier);
       }
     }
   }
 
+  private void genPushGlobal(final MethodGenerationContext mgenc, final SSymbol global)
+      throws ParseError {
+    if (global.getEmbeddedString().equals("nil")) {
+      bcGen.emitPUSHNIL(mgenc);
+    } else {
+      mgenc.addLiteralIfAbsent(global, this);
+      bcGen.emitPUSHGLOBAL(mgenc, global);
+    }
+  }
+
+  private void genPushConstant(final MethodGenerationContext mgenc, final SAbstractObject lit)
+      throws ParseError {
+    if (lit instanceof SInteger && ((SInteger) lit).getEmbeddedInteger() == 0) {
+      bcGen.emitPUSH0(mgenc);
+    } else if (lit instanceof SInteger && ((SInteger) lit).getEmbeddedInteger() == 1) {
+      bcGen.emitPUSH1(mgenc);
+    } else {
+      mgenc.addLiteralIfAbsent(lit, this);
+      bcGen.emitPUSHCONSTANT(mgenc, lit);
+    }
+  }
+
   private void genPopVariable(final MethodGenerationContext mgenc,
       final String var) throws ParseError {
     // The purpose of this function is to find out whether the variable to be
@@ -0,0 +1,72 @@
+package som.compiler;
+
+import static som.interpreter.Bytecodes.PUSH_ARGUMENT;
+import static som.interpreter.Bytecodes.PUSH_ARGUMENT_1;
+import static som.interpreter.Bytecodes.PUSH_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_0;
+import static som.interpreter.Bytecodes.PUSH_OUTER_ARG;
+import static som.interpreter.Bytecodes.PUSH_OUTER_LOCAL;
+import static som.interpreter.Bytecodes.STORE_LOCAL;
+import static som.interpreter.Bytecodes.STORE_LOCAL_0;
+import static som.interpreter.Bytecodes.STORE_OUTER_LOC;
+import static som.interpreter.Bytecodes.getBytecodeLength;
+
+import som.vmobjects.SAbstractObject;
+import som.vmobjects.SMethod;
+
+
+/**
+ * Replaces the accesses to variables of the current and the enclosing
+ * context with bytecodes for the specific context level and index, which the
+ * interpreter executes without walking the context chain. Like the
+ * superinstructions, this is done once a method and its blocks are complete,
+ * and after the superinstructions are in place.
+ */
+public final class SpecializedAccesses {
+
+  private SpecializedAccesses() {}
+
+  public static void specialize(final SMethod method) {
+    byte[] bc = method.getBytecodes();
+    int i = 0;
+    while (i < bc.length) {
+      if (bc[i] == PUSH_LOCAL) {
+        bc[i] = specialize(bc[i + 1], bc[i + 2], PUSH_LOCAL, PUSH_LOCAL_0, 3,
+            PUSH_OUTER_LOCAL);
+      } else if (bc[i] == PUSH_ARGUMENT && bc[i + 1] > 0) {
+        // argument 0 is self, which is pushed with PUSH_SELF
+        byte argument = (byte) (bc[i + 1] - 1);
+        bc[i] = specialize(argument, bc[i + 2], PUSH_ARGUMENT, PUSH_ARGUMENT_1, 2,
+            PUSH_OUTER_ARG);
+      } else if (bc[i] == STORE_LOCAL) {
+        bc[i] = specialize(bc[i + 2], bc[i + 3], STORE_LOCAL, STORE_LOCAL_0, 3,
+            STORE_OUTER_LOC);
+      }
+      i += getBytecodeLength(bc[i]);
+    }
+
+    for (int l = 0; l < method.getNumberOfLiterals(); l++) {
+      SAbstractObject literal = method.getLiteral(l);
+      if (literal instanceof SMethod) {
+        specialize((SMethod) literal);
+      }
+    }
+  }
+
+  /**
+   * @param index the index relative to the first specialized index
+   * @param first the bytecode for the first specialized index in the
+   *          current context
+   * @param count the number of indexes with a specialized bytecode
+   */
+  private static byte specialize(final byte index, final byte contextLevel,
+      final byte generic, final byte first, final int count, final byte outer) {
+    if (contextLevel == 0 && index < count) {
+      return (byte) (first + index);
+    } else if (contextLevel == 1) {
+      return outer;
+    } else {
+      return generic;
+    }
+  }
+}
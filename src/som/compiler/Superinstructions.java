@@ -0,0 +1,66 @@
+package som.compiler;
+
+import static som.interpreter.Bytecodes.ADD_TO_LOCAL;
+import static som.interpreter.Bytecodes.DUP;
+import static som.interpreter.Bytecodes.POP;
+import static som.interpreter.Bytecodes.POP_ADD_TO_LOCAL;
+import static som.interpreter.Bytecodes.POP_FIELD;
+import static som.interpreter.Bytecodes.POP_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_CONSTANT;
+import static som.interpreter.Bytecodes.PUSH_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_CONST;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_LOCAL;
+import static som.interpreter.Bytecodes.STORE_FIELD;
+import static som.interpreter.Bytecodes.STORE_LOCAL;
+import static som.interpreter.Bytecodes.getBytecodeLength;
+
+import som.vmobjects.SAbstractObject;
+import som.vmobjects.SMethod;
+
+
+/**
+ * Replaces frequent sequences of bytecodes with superinstructions. This is
+ * done once a method is complete, including the methods of its blocks,
+ * because the compiler inlines blocks by copying their bytecodes, and
+ * expects only the basic bytecodes.
+ *
+ * The sequences are the most frequent ones in the benchmarks, as reported
+ * by the -bcprofile option, that do not contain sends or jumps.
+ */
+public final class Superinstructions {
+
+  private Superinstructions() {}
+
+  public static void replaceSequences(final SMethod method) {
+    byte[] bc = method.getBytecodes();
+    int i = 0;
+    while (i < bc.length) {
+      int next = i + getBytecodeLength(bc[i]);
+      int afterNext = next < bc.length ? next + getBytecodeLength(bc[next]) : next;
+
+      if (bc[i] == DUP && next < bc.length && bc[next] == POP_LOCAL
+          && afterNext < bc.length && bc[afterNext] == POP) {
+        bc[i] = STORE_LOCAL;
+      } else if (bc[i] == DUP && next < bc.length && bc[next] == POP_FIELD
+          && afterNext < bc.length && bc[afterNext] == POP) {
+        bc[i] = STORE_FIELD;
+      } else if (bc[i] == PUSH_LOCAL && next < bc.length && bc[next] == PUSH_CONSTANT) {
+        bc[i] = PUSH_LOCAL_CONST;
+      } else if (bc[i] == PUSH_LOCAL && next < bc.length && bc[next] == PUSH_LOCAL) {
+        bc[i] = PUSH_LOCAL_LOCAL;
+      } else if (bc[i] == POP && next < bc.length && bc[next] == ADD_TO_LOCAL) {
+        bc[i] = POP_ADD_TO_LOCAL;
+      }
+
+      i += getBytecodeLength(bc[i]);
+    }
+
+    // the blocks of the method are complete as well
+    for (int l = 0; l < method.getNumberOfLiterals(); l++) {
+      SAbstractObject literal = method.getLiteral(l);
+      if (literal instanceof SMethod) {
+        replaceSequences((SMethod) literal);
+      }
+    }
+  }
+}
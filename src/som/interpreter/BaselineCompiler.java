@@ -0,0 +1,941 @@
+package som.interpreter;
+
+import static som.interpreter.Bytecodes.ADD_TO_LOCAL;
+import static som.interpreter.Bytecodes.DUP;
+import static som.interpreter.Bytecodes.HALT;
+import static som.interpreter.Bytecodes.JUMP;
+import static som.interpreter.Bytecodes.JUMP_BACKWARD;
+import static som.interpreter.Bytecodes.JUMP_IF_FALSE;
+import static som.interpreter.Bytecodes.JUMP_IF_GREATER;
+import static som.interpreter.Bytecodes.JUMP_IF_LESS;
+import static som.interpreter.Bytecodes.JUMP_IF_NOT_INT;
+import static som.interpreter.Bytecodes.JUMP_IF_TRUE;
+import static som.interpreter.Bytecodes.POP;
+import static som.interpreter.Bytecodes.POP_ADD_TO_LOCAL;
+import static som.interpreter.Bytecodes.POP_ARGUMENT;
+import static som.interpreter.Bytecodes.POP_FIELD;
+import static som.interpreter.Bytecodes.POP_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_0;
+import static som.interpreter.Bytecodes.PUSH_1;
+import static som.interpreter.Bytecodes.PUSH_ARGUMENT;
+import static som.interpreter.Bytecodes.PUSH_BLOCK;
+import static som.interpreter.Bytecodes.PUSH_CONSTANT;
+import static som.interpreter.Bytecodes.PUSH_FIELD;
+import static som.interpreter.Bytecodes.PUSH_GLOBAL;
+import static som.interpreter.Bytecodes.PUSH_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_NIL;
+import static som.interpreter.Bytecodes.PUSH_SELF;
+import static som.interpreter.Bytecodes.RETURN_FIELD;
+import static som.interpreter.Bytecodes.RETURN_LOCAL;
+import static som.interpreter.Bytecodes.RETURN_NON_LOCAL;
+import static som.interpreter.Bytecodes.RETURN_SELF;
+import static som.interpreter.Bytecodes.SEND;
+import static som.interpreter.Bytecodes.STORE_FIELD;
+import static som.interpreter.Bytecodes.STORE_LOCAL;
+import static som.interpreter.Bytecodes.STORE_LOCAL_0;
+import static som.interpreter.Bytecodes.STORE_LOCAL_2;
+import static som.interpreter.Bytecodes.STORE_OUTER_LOC;
+import static som.interpreter.Bytecodes.SUPER_SEND;
+import static som.interpreter.Bytecodes.getBytecodeLength;
+import static som.interpreter.Bytecodes.getJumpOffset;
+import static som.interpreter.Bytecodes.isPushArgument;
+import static som.interpreter.Bytecodes.isPushLocal;
+import static som.interpreter.Bytecodes.isQuickenedSend;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import som.interpreter.ClassFileWriter.Code;
+import som.interpreter.ClassFileWriter.Label;
+import som.vm.Universe;
+import som.vmobjects.SAbstractObject;
+import som.vmobjects.SMethod;
+import som.vmobjects.SObject;
+import som.vmobjects.SSymbol;
+
+
+/**
+ * Compiles methods that are invoked frequently to JVM bytecode, which is
+ * loaded as a hidden class, so that the JVM can compile it further.
+ *
+ * A method becomes a static method of its own class, with the arguments, the
+ * locals, and the elements of the stack of the SOM method as JVM locals.
+ * Sends are invokedynamic instructions, whose call sites link to the
+ * methods in the inline cache of the send, see {@link SendSite}.
+ *
+ * Methods with loops get a second entry, at which the interpreter continues
+ * an activation that runs a loop for long, see
+ * {@link Interpreter#setOnStackReplacementThreshold(int)}.
+ *
+ * The values of globals that are bound are constants of the compiled code,
+ * which checks that it is still valid before it uses one. Code that was
+ * invalidated because a global was rebound continues in the interpreter,
+ * see {@link Deoptimizer}.
+ *
+ * Bytecodes that are not supported, which are mostly the creation of blocks
+ * that access their context, are left to the interpreter. When compiled
+ * code reaches one, it moves the arguments, locals, and stack elements into
+ * a frame, and the interpreter continues the activation. This happens on the
+ * paths that send the original message of an inlined control structure,
+ * when its receiver is not a boolean or integer. Blocks are always
+ * interpreted.
+ */
+final class BaselineCompiler {
+
+  private static final String OBJECT        = "som/vmobjects/SAbstractObject";
+  private static final String OBJECT_TYPE   = "L" + OBJECT + ";";
+  private static final String INSTANCE      = "som/vmobjects/SObject";
+  private static final String INTEGER       = "som/vmobjects/SInteger";
+  private static final String METHOD        = "som/vmobjects/SMethod";
+  private static final String SYMBOL        = "som/vmobjects/SSymbol";
+  private static final String RUNTIME       = "som/interpreter/JitRuntime";
+  private static final String COMPILED_CODE = "som/interpreter/CompiledCode";
+  private static final String SEND_SITE     = "som/interpreter/SendSite";
+  private static final String SWITCH_POINT  = "java/lang/invoke/SwitchPoint";
+
+  private static final String BINARY_OPERATION =
+      "(" + OBJECT_TYPE + OBJECT_TYPE + ")" + OBJECT_TYPE;
+
+  private static final String BOOTSTRAP_DESCRIPTOR =
+      "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+          + "Ljava/lang/invoke/MethodType;III)Ljava/lang/invoke/CallSite;";
+
+  private static final String VALIDITY_BOOTSTRAP_DESCRIPTOR =
+      "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+          + "Ljava/lang/invoke/MethodType;I)Ljava/lang/invoke/CallSite;";
+
+  // the largest number of arguments for which compiled code has its own
+  // invoke method, including the receiver
+  private static final int MAX_INVOKE_ARGUMENTS = 4;
+
+  private final Universe    universe;
+  private final JitRuntime  runtime;
+  private final Deoptimizer deoptimizer;
+
+  // the selectors of the operations that compiled code does directly on
+  // numbers, and the methods of the runtime that do them
+  private final SSymbol[] operationSelectors;
+  private final String[]  operationNames =
+      {"add", "subtract", "multiply", "lessThan", "equal"};
+
+  private int numberOfCompiledMethods;
+
+  // whether compiled code counts its invocations, for the report of tiers
+  private boolean countingInvocations;
+
+  BaselineCompiler(final Universe universe, final JitRuntime runtime,
+      final Deoptimizer deoptimizer) {
+    this.universe = universe;
+    this.runtime = runtime;
+    this.deoptimizer = deoptimizer;
+    this.operationSelectors = new SSymbol[] {universe.symbolFor("+"), universe.symbolFor("-"),
+        universe.symbolFor("*"), universe.symbolFor("<"), universe.symbolFor("=")};
+  }
+
+  /**
+   * @return the compiled code of the method, which is also set on the
+   *         method, or null if it can not be compiled
+   */
+  CompiledCode compile(final SMethod method) {
+    int[] stackDepths = getStackDepths(method);
+    if (stackDepths == null) {
+      return null;
+    }
+
+    MethodTranslation translation = new MethodTranslation(method, stackDepths);
+    byte[] classFile = translation.translate();
+    if (classFile == null) {
+      return null;
+    }
+
+    CompiledCode code;
+    try {
+      Object[] classData = translation.constants.toArray();
+      MethodHandles.Lookup lookup =
+          MethodHandles.lookup().defineHiddenClassWithClassData(classFile, classData, true);
+      Class<?> compiledClass = lookup.lookupClass();
+      Constructor<?> constructor = compiledClass.getDeclaredConstructor(SMethod.class);
+      code = (CompiledCode) constructor.newInstance(method);
+      code.setExecuteHandle(lookup.findStatic(compiledClass, "execute",
+          MethodType.methodType(SAbstractObject.class,
+              Collections.nCopies(method.getNumberOfArguments(), SAbstractObject.class))));
+      code.setValidity(translation.validity);
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // the method stays interpreted
+      Universe.errorPrintln("Warning: could not compile " + method + ": " + e);
+      return null;
+    }
+
+    for (SSymbol global : translation.assumedGlobals) {
+      deoptimizer.addGlobalDependent(global, code);
+    }
+    numberOfCompiledMethods += 1;
+    method.setCompiledCode(code);
+    return code;
+  }
+
+  int getNumberOfCompiledMethods() {
+    return numberOfCompiledMethods;
+  }
+
+  void setCountingInvocations(final boolean counting) {
+    countingInvocations = counting;
+  }
+
+  /**
+   * @return the bytecode that a bytecode starts with. Superinstructions and
+   *         specialized bytecodes leave the operands of the bytecodes they
+   *         replace in place, and are compiled as their first bytecode,
+   *         followed by the others.
+   */
+  private static byte getFirstBytecode(final byte bytecode) {
+    if (bytecode == STORE_LOCAL || bytecode == STORE_FIELD || bytecode == STORE_OUTER_LOC
+        || bytecode >= STORE_LOCAL_0 && bytecode <= STORE_LOCAL_2) {
+      return DUP;
+    } else if (isPushLocal(bytecode)) {
+      return PUSH_LOCAL;
+    } else if (isPushArgument(bytecode)) {
+      return PUSH_ARGUMENT;
+    } else if (bytecode == POP_ADD_TO_LOCAL) {
+      return POP;
+    } else if (isQuickenedSend(bytecode)) {
+      return SEND;
+    }
+    return bytecode;
+  }
+
+  /**
+   * @return whether the bytecode is executed by the interpreter, which
+   *         continues the activation from it
+   */
+  private static boolean isInterpreted(final SMethod method, final int bytecodeIndex) {
+    byte[] bytecodes = method.getBytecodes();
+    switch (getFirstBytecode(bytecodes[bytecodeIndex])) {
+      case PUSH_LOCAL:
+      case PUSH_ARGUMENT:
+      case POP_LOCAL:
+      case POP_ARGUMENT:
+        // accesses to outer contexts only happen in blocks
+        return bytecodes[bytecodeIndex + 2] != 0;
+      case PUSH_BLOCK:
+        return ((SMethod) method.getConstant(bytecodeIndex)).usesContext();
+      case HALT:
+      case RETURN_NON_LOCAL:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Compute the depth of the stack before each bytecode that is reachable
+   * in compiled code. The bytecodes that are interpreted end the compiled
+   * code.
+   *
+   * @return the depths, with -1 for bytecodes that are not reachable, or
+   *         null if the method can not be compiled
+   */
+  private static int[] getStackDepths(final SMethod method) {
+    byte[] bytecodes = method.getBytecodes();
+    int[] depths = new int[bytecodes.length];
+    Arrays.fill(depths, -1);
+
+    Deque<int[]> worklist = new ArrayDeque<>();
+    worklist.push(new int[] {0, 0});
+    while (!worklist.isEmpty()) {
+      int[] entry = worklist.pop();
+      int bytecodeIndex = entry[0];
+      int depth = entry[1];
+      if (bytecodeIndex < 0 || bytecodeIndex >= bytecodes.length || depth < 0) {
+        return null;
+      }
+      if (depths[bytecodeIndex] != -1) {
+        if (depths[bytecodeIndex] != depth) {
+          return null;
+        }
+        continue;
+      }
+      depths[bytecodeIndex] = depth;
+      if (isInterpreted(method, bytecodeIndex)) {
+        if (bytecodeIndex == 0) {
+          // nothing would be compiled
+          return null;
+        }
+        continue;
+      }
+
+      byte bytecode = getFirstBytecode(bytecodes[bytecodeIndex]);
+      int next = bytecodeIndex + getBytecodeLength(bytecode);
+      switch (bytecode) {
+        case DUP:
+        case PUSH_FIELD:
+        case PUSH_CONSTANT:
+        case PUSH_GLOBAL:
+        case PUSH_0:
+        case PUSH_1:
+        case PUSH_NIL:
+        case PUSH_SELF:
+          worklist.push(new int[] {next, depth + 1});
+          break;
+        case PUSH_LOCAL:
+        case PUSH_ARGUMENT:
+        case PUSH_BLOCK:
+          worklist.push(new int[] {next, depth + 1});
+          break;
+        case POP:
+        case POP_FIELD:
+        case POP_LOCAL:
+        case POP_ARGUMENT:
+          worklist.push(new int[] {next, depth - 1});
+          break;
+        case SEND:
+        case SUPER_SEND: {
+          int numberOfArguments =
+              ((SSymbol) method.getConstant(bytecodeIndex)).getNumberOfSignatureArguments();
+          if (numberOfArguments > depth) {
+            return null;
+          }
+          worklist.push(new int[] {next, depth - numberOfArguments + 1});
+          break;
+        }
+        case RETURN_LOCAL:
+          if (depth < 1) {
+            return null;
+          }
+          break;
+        case RETURN_SELF:
+        case RETURN_FIELD:
+          break;
+        case JUMP:
+          worklist.push(new int[] {bytecodeIndex + getJumpOffset(bytecodes[bytecodeIndex + 1],
+              bytecodes[bytecodeIndex + 2]), depth});
+          break;
+        case JUMP_BACKWARD:
+          worklist.push(new int[] {bytecodeIndex - getJumpOffset(bytecodes[bytecodeIndex + 1],
+              bytecodes[bytecodeIndex + 2]), depth});
+          break;
+        case JUMP_IF_TRUE:
+        case JUMP_IF_FALSE:
+          worklist.push(new int[] {next, depth - 1});
+          worklist.push(new int[] {bytecodeIndex + getJumpOffset(bytecodes[bytecodeIndex + 1],
+              bytecodes[bytecodeIndex + 2]), depth - 1});
+          worklist.push(new int[] {bytecodeIndex + getJumpOffset(bytecodes[bytecodeIndex + 3],
+              bytecodes[bytecodeIndex + 4]), depth});
+          break;
+        case JUMP_IF_NOT_INT:
+          if (bytecodes[bytecodeIndex + 1] > depth) {
+            return null;
+          }
+          worklist.push(new int[] {next, depth});
+          worklist.push(new int[] {bytecodeIndex + getJumpOffset(bytecodes[bytecodeIndex + 2],
+              bytecodes[bytecodeIndex + 3]), depth});
+          break;
+        case JUMP_IF_GREATER:
+        case JUMP_IF_LESS:
+          worklist.push(new int[] {next, depth});
+          worklist.push(new int[] {bytecodeIndex + getJumpOffset(bytecodes[bytecodeIndex + 3],
+              bytecodes[bytecodeIndex + 4]), depth});
+          break;
+        case ADD_TO_LOCAL:
+          worklist.push(new int[] {next, depth});
+          break;
+        default:
+          return null;
+      }
+    }
+    return depths;
+  }
+
+  /**
+   * The translation of a single method to a class.
+   */
+  private final class MethodTranslation {
+    private final SMethod method;
+    private final byte[]  bytecodes;
+    private final int[]   stackDepths;
+
+    private final ClassFileWriter classFile;
+    private final String          className;
+    private final String          executeDescriptor;
+
+    // the constants of the class, and their types, which the class gets as
+    // its class data
+    private final List<Object> constants     = new ArrayList<>();
+    private final List<String> constantTypes = new ArrayList<>();
+
+    // the JVM locals of the arguments, locals, and stack elements of the SOM
+    // method, and a temporary one
+    private final int numberOfArguments;
+    private final int localsStart;
+    private final int stackStart;
+    private final int temporary;
+
+    // the loop headers at which the interpreter can continue an activation
+    // in the compiled code, indexed by bytecode index
+    private final boolean[] loopEntries;
+
+    // the validity of the code, and the globals whose values it assumes
+    private final SwitchPoint   validity       = new SwitchPoint();
+    private final List<SSymbol> assumedGlobals = new ArrayList<>();
+
+    private Code code;
+
+    MethodTranslation(final SMethod method, final int[] stackDepths) {
+      this.method = method;
+      this.bytecodes = method.getBytecodes();
+      this.stackDepths = stackDepths;
+
+      String holderName = method.getHolder().getName().getEmbeddedString();
+      className = "som/interpreter/Compiled$" + toIdentifier(holderName) + "$"
+          + toIdentifier(method.getSignature().getEmbeddedString());
+      classFile = new ClassFileWriter(className, COMPILED_CODE);
+
+      int maxDepth = 0;
+      for (int depth : stackDepths) {
+        maxDepth = Math.max(maxDepth, depth);
+      }
+
+      numberOfArguments = method.getNumberOfArguments();
+      localsStart = numberOfArguments;
+      stackStart = localsStart + method.getNumberOfLocals();
+      temporary = stackStart + maxDepth + 1;
+
+      StringBuilder descriptor = new StringBuilder("(");
+      for (int i = 0; i < numberOfArguments; i++) {
+        descriptor.append(OBJECT_TYPE);
+      }
+      executeDescriptor = descriptor.append(")").append(OBJECT_TYPE).toString();
+
+      loopEntries = getLoopEntries();
+    }
+
+    /**
+     * @return the targets of backward jumps that are compiled, or null if
+     *         there are none. The state of an activation that enters at one
+     *         has the size of a frame of the method, which needs to hold all
+     *         JVM locals of the compiled code.
+     */
+    private boolean[] getLoopEntries() {
+      if (temporary > Frame.getFrameSize(method)) {
+        return null;
+      }
+
+      boolean[] entries = null;
+      for (int i = 0; i < bytecodes.length; i++) {
+        if (stackDepths[i] == -1 || bytecodes[i] != JUMP_BACKWARD) {
+          continue;
+        }
+        int target = i - getJumpOffset(bytecodes[i + 1], bytecodes[i + 2]);
+        if (stackDepths[target] != -1 && !isInterpreted(method, target)) {
+          if (entries == null) {
+            entries = new boolean[bytecodes.length];
+          }
+          entries[target] = true;
+        }
+      }
+      return entries;
+    }
+
+    private String toIdentifier(final String name) {
+      StringBuilder result = new StringBuilder();
+      for (int i = 0; i < name.length(); i++) {
+        char c = name.charAt(i);
+        result.append(Character.isJavaIdentifierPart(c) && c != '$' ? c : '_');
+      }
+      return result.toString();
+    }
+
+    /**
+     * @return the class file, or null if the method is too large
+     */
+    byte[] translate() {
+      if (temporary >= 0xFFFF) {
+        return null;
+      }
+
+      try {
+        code = classFile.addMethod(ClassFileWriter.ACC_STATIC, "execute", executeDescriptor);
+        translateBody(false);
+        if (loopEntries != null) {
+          code = classFile.addMethod(ClassFileWriter.ACC_STATIC, "executeFrom",
+              "([" + OBJECT_TYPE + "I)" + OBJECT_TYPE);
+          translateBody(true);
+        }
+        addConstructor();
+        addInvokeMethods();
+
+        // the constants are known once the body is translated
+        addStaticInitializer();
+        return classFile.toByteArray();
+      } catch (IllegalStateException e) {
+        // the method has too many constants or too much code
+        return null;
+      }
+    }
+
+    /**
+     * Translate the bytecodes of the method. The code either starts at the
+     * first bytecode, or is entered at a loop header with the state of an
+     * activation of the interpreter.
+     */
+    private void translateBody(final boolean fromLoopEntry) {
+      code.setFrameLocals(temporary + 1, OBJECT);
+
+      Label[] labels = new Label[bytecodes.length];
+      for (int i = 0; i < bytecodes.length; i++) {
+        if (stackDepths[i] != -1) {
+          labels[i] = code.newLabel();
+        }
+      }
+
+      Label interpret = code.newLabel();
+      if (fromLoopEntry) {
+        translateLoopEntry(labels);
+      } else {
+        // the locals of a SOM method are nil, and all other JVM locals need
+        // to be initialized for the frames at labels
+        for (int i = localsStart; i < stackStart; i++) {
+          pushConstant(universe.nilObject, OBJECT);
+          code.astore(i);
+        }
+        for (int i = stackStart; i <= temporary; i++) {
+          code.aconstNull();
+          code.astore(i);
+        }
+
+        if (countingInvocations) {
+          pushConstant(method, METHOD);
+          code.invokevirtual(METHOD, "incrementInvocationCount", "()I");
+          code.pop();
+        }
+
+        // deeply nested activations are left to the interpreter
+        pushConstant(runtime, RUNTIME);
+        code.invokevirtual(RUNTIME, "enter", "()Z");
+        code.branch(ClassFileWriter.IFEQ, interpret);
+      }
+
+      for (int i = 0; i < bytecodes.length; i++) {
+        if (stackDepths[i] != -1) {
+          code.bind(labels[i]);
+          translateBytecode(i, stackDepths[i], labels);
+        }
+      }
+
+      if (!fromLoopEntry) {
+        code.bind(interpret);
+        continueInInterpreter(0, 0);
+      }
+    }
+
+    /**
+     * Load the state of the activation into the JVM locals, and jump to the
+     * loop header at the given bytecode index, or return null if it is not a
+     * loop entry. The state and the index are the parameters, and are moved
+     * to JVM locals beyond the ones of the translation first. The
+     * interpreter only enters when the depth of compiled code allows it.
+     */
+    private void translateLoopEntry(final Label[] labels) {
+      int state = temporary + 1;
+      int entryIndex = temporary + 2;
+      code.aload(0);
+      code.astore(state);
+      code.iload(1);
+      code.istore(entryIndex);
+      for (int i = 0; i < temporary; i++) {
+        code.aload(state);
+        code.iconst(i);
+        code.aaload();
+        code.astore(i);
+      }
+      code.aconstNull();
+      code.astore(temporary);
+
+      pushConstant(runtime, RUNTIME);
+      code.invokevirtual(RUNTIME, "enter", "()Z");
+      code.pop();
+
+      for (int i = 0; i < loopEntries.length; i++) {
+        if (loopEntries[i]) {
+          code.iload(entryIndex);
+          code.iconst(i);
+          code.branch(ClassFileWriter.IF_ICMPEQ, labels[i]);
+        }
+      }
+      code.aconstNull();
+      returnValue();
+    }
+
+    /**
+     * Return the value on the operand stack from the compiled code.
+     */
+    private void returnValue() {
+      pushConstant(runtime, RUNTIME);
+      code.invokevirtual(RUNTIME, "exit", "()V");
+      code.areturn();
+    }
+
+    private int slot(final int depth) {
+      return stackStart + depth;
+    }
+
+    private void translateBytecode(final int bytecodeIndex, final int depth,
+        final Label[] labels) {
+      if (isInterpreted(method, bytecodeIndex)) {
+        continueInInterpreter(bytecodeIndex, depth);
+        return;
+      }
+
+      byte bytecode = getFirstBytecode(bytecodes[bytecodeIndex]);
+
+      // the first operands, which are indexes of variables and fields, or
+      // the number of integers for JUMP_IF_NOT_INT
+      int operand1 = getBytecodeLength(bytecode) > 1 ? bytecodes[bytecodeIndex + 1] : 0;
+      int operand2 = getBytecodeLength(bytecode) > 2 ? bytecodes[bytecodeIndex + 2] : 0;
+
+      switch (bytecode) {
+        case DUP:
+          code.aload(slot(depth - 1));
+          code.astore(slot(depth));
+          break;
+        case PUSH_LOCAL:
+          code.aload(localsStart + operand1);
+          code.astore(slot(depth));
+          break;
+        case PUSH_ARGUMENT:
+          code.aload(operand1);
+          code.astore(slot(depth));
+          break;
+        case PUSH_FIELD:
+          pushField(operand1);
+          code.astore(slot(depth));
+          break;
+        case PUSH_BLOCK:
+          pushConstant(runtime, RUNTIME);
+          pushConstant(method.getConstant(bytecodeIndex), METHOD);
+          code.invokevirtual(RUNTIME, "newBlock", "(L" + METHOD + ";)" + OBJECT_TYPE);
+          code.astore(slot(depth));
+          break;
+        case PUSH_CONSTANT:
+          pushConstant(method.getConstant(bytecodeIndex), OBJECT);
+          code.astore(slot(depth));
+          break;
+        case PUSH_GLOBAL:
+          translatePushGlobal(bytecodeIndex, depth);
+          break;
+        case PUSH_0:
+        case PUSH_1:
+          pushConstant(universe.newInteger(bytecode == PUSH_0 ? 0 : 1), OBJECT);
+          code.astore(slot(depth));
+          break;
+        case PUSH_NIL:
+          pushConstant(universe.nilObject, OBJECT);
+          code.astore(slot(depth));
+          break;
+        case PUSH_SELF:
+          code.aload(0);
+          code.astore(slot(depth));
+          break;
+        case POP:
+          break;
+        case POP_LOCAL:
+          code.aload(slot(depth - 1));
+          code.astore(localsStart + operand1);
+          break;
+        case POP_ARGUMENT:
+          code.aload(slot(depth - 1));
+          code.astore(operand1);
+          break;
+        case POP_FIELD:
+          code.aload(0);
+          code.checkcast(INSTANCE);
+          code.lconst(operand1);
+          code.aload(slot(depth - 1));
+          code.invokevirtual(INSTANCE, "setField", "(J" + OBJECT_TYPE + ")V");
+          break;
+        case SEND:
+        case SUPER_SEND:
+          translateSend(bytecodeIndex, depth, bytecode == SUPER_SEND);
+          break;
+        case RETURN_LOCAL:
+          code.aload(slot(depth - 1));
+          returnValue();
+          break;
+        case RETURN_SELF:
+          code.aload(0);
+          returnValue();
+          break;
+        case RETURN_FIELD:
+          pushField(operand1);
+          returnValue();
+          break;
+        case JUMP:
+          code.branch(ClassFileWriter.GOTO, labels[bytecodeIndex + getJumpOffset(
+              bytecodes[bytecodeIndex + 1], bytecodes[bytecodeIndex + 2])]);
+          break;
+        case JUMP_BACKWARD:
+          code.branch(ClassFileWriter.GOTO, labels[bytecodeIndex - getJumpOffset(
+              bytecodes[bytecodeIndex + 1], bytecodes[bytecodeIndex + 2])]);
+          break;
+        case JUMP_IF_TRUE:
+        case JUMP_IF_FALSE: {
+          boolean ifTrue = bytecode == JUMP_IF_TRUE;
+          SObject jumping = ifTrue ? universe.trueObject : universe.falseObject;
+          SObject continuing = ifTrue ? universe.falseObject : universe.trueObject;
+          code.aload(slot(depth - 1));
+          pushConstant(jumping, OBJECT);
+          code.branch(ClassFileWriter.IF_ACMPEQ, labels[bytecodeIndex + getJumpOffset(
+              bytecodes[bytecodeIndex + 1], bytecodes[bytecodeIndex + 2])]);
+          code.aload(slot(depth - 1));
+          pushConstant(continuing, OBJECT);
+          code.branch(ClassFileWriter.IF_ACMPEQ, labels[bytecodeIndex + 5]);
+
+          // not a boolean, continue with the send of the original message
+          code.branch(ClassFileWriter.GOTO, labels[bytecodeIndex
+              + getJumpOffset(bytecodes[bytecodeIndex + 3], bytecodes[bytecodeIndex + 4])]);
+          break;
+        }
+        case JUMP_IF_NOT_INT: {
+          Label notInteger = labels[bytecodeIndex
+              + getJumpOffset(bytecodes[bytecodeIndex + 2], bytecodes[bytecodeIndex + 3])];
+          for (int i = 0; i < operand1; i++) {
+            code.aload(slot(depth - 1 - i));
+            code.instanceOf(INTEGER);
+            code.branch(ClassFileWriter.IFEQ, notInteger);
+          }
+          break;
+        }
+        case JUMP_IF_GREATER:
+        case JUMP_IF_LESS:
+          code.aload(localsStart + operand1);
+          code.aload(localsStart + operand2);
+          code.invokestatic(RUNTIME, bytecode == JUMP_IF_GREATER ? "isGreater" : "isLess",
+              "(" + OBJECT_TYPE + OBJECT_TYPE + ")Z");
+          code.branch(ClassFileWriter.IFNE, labels[bytecodeIndex
+              + getJumpOffset(bytecodes[bytecodeIndex + 3], bytecodes[bytecodeIndex + 4])]);
+          break;
+        case ADD_TO_LOCAL:
+          pushConstant(runtime, RUNTIME);
+          code.aload(localsStart + operand1);
+          code.aload(localsStart + operand2);
+          code.invokevirtual(RUNTIME, "increment", BINARY_OPERATION);
+          code.astore(localsStart + operand1);
+          break;
+        default:
+          throw new IllegalStateException("bytecode is not supported: " + bytecode);
+      }
+    }
+
+    /**
+     * Let the interpreter continue the activation from the bytecode, and
+     * return its result.
+     */
+    private void continueInInterpreter(final int bytecodeIndex, final int depth) {
+      continueInInterpreter(bytecodeIndex, depth, "interpret");
+    }
+
+    /**
+     * @param runtimeMethod the method of the runtime that continues the
+     *          activation
+     */
+    private void continueInInterpreter(final int bytecodeIndex, final int depth,
+        final String runtimeMethod) {
+      pushConstant(runtime, RUNTIME);
+      pushConstant(method, METHOD);
+      code.iconst(bytecodeIndex);
+      pushArray(0, stackStart + depth);
+      code.invokevirtual(RUNTIME, runtimeMethod,
+          "(L" + METHOD + ";I[" + OBJECT_TYPE + ")" + OBJECT_TYPE);
+      returnValue();
+    }
+
+    /**
+     * Push the value of a global. The value of a global that is bound is
+     * assumed to stay the same, as long as the code is valid.
+     */
+    private void translatePushGlobal(final int bytecodeIndex, final int depth) {
+      SSymbol name = (SSymbol) method.getConstant(bytecodeIndex);
+      SAbstractObject value = universe.getGlobal(name);
+      if (value == null || !deoptimizer.canAssumeGlobal(name)) {
+        pushConstant(runtime, RUNTIME);
+        pushConstant(name, SYMBOL);
+        code.aload(0);
+        code.invokevirtual(RUNTIME, "getGlobal",
+            "(L" + SYMBOL + ";" + OBJECT_TYPE + ")" + OBJECT_TYPE);
+        code.astore(slot(depth));
+        return;
+      }
+
+      if (!assumedGlobals.contains(name)) {
+        assumedGlobals.add(name);
+      }
+      int bootstrapMethod = classFile.addBootstrapMethod(COMPILED_CODE, "bootstrapValidity",
+          VALIDITY_BOOTSTRAP_DESCRIPTOR, addConstant(validity, SWITCH_POINT));
+      code.invokedynamic(bootstrapMethod, "isValid", "()Z");
+      Label valid = code.newLabel();
+      code.branch(ClassFileWriter.IFNE, valid);
+      continueInInterpreter(bytecodeIndex, depth, "deoptimize");
+      code.bind(valid);
+      pushConstant(value, OBJECT);
+      code.astore(slot(depth));
+    }
+
+    private void pushField(final int index) {
+      code.aload(0);
+      code.checkcast(INSTANCE);
+      code.lconst(index);
+      code.invokevirtual(INSTANCE, "getField", "(J)" + OBJECT_TYPE);
+    }
+
+    private void translateSend(final int bytecodeIndex, final int depth,
+        final boolean superSend) {
+      SSymbol selector = (SSymbol) method.getConstant(bytecodeIndex);
+      int numberOfSendArguments = selector.getNumberOfSignatureArguments();
+      int receiver = slot(depth - numberOfSendArguments);
+      Label done = code.newLabel();
+
+      int operation = superSend ? -1 : Arrays.asList(operationSelectors).indexOf(selector);
+      if (operation != -1) {
+        // arithmetic on numbers is done directly, if it reaches the
+        // primitives
+        pushConstant(runtime, RUNTIME);
+        code.aload(receiver);
+        code.aload(receiver + 1);
+        code.invokevirtual(RUNTIME, operationNames[operation], BINARY_OPERATION);
+        code.dup();
+        code.astore(temporary);
+        Label send = code.newLabel();
+        code.branch(ClassFileWriter.IFNULL, send);
+        code.aload(temporary);
+        code.astore(receiver);
+        code.branch(ClassFileWriter.GOTO, done);
+        code.bind(send);
+      }
+
+      // the send site links to the methods in the inline cache
+      code.aload(0);
+      StringBuilder descriptor = new StringBuilder("(").append(OBJECT_TYPE);
+      for (int i = 0; i < numberOfSendArguments; i++) {
+        code.aload(receiver + i);
+        descriptor.append(OBJECT_TYPE);
+      }
+      int bootstrapMethod = classFile.addBootstrapMethod(SEND_SITE,
+          superSend ? "bootstrapSuperSend" : "bootstrapSend", BOOTSTRAP_DESCRIPTOR,
+          addConstant(runtime, RUNTIME), addConstant(method, METHOD), bytecodeIndex);
+      code.invokedynamic(bootstrapMethod, "send",
+          descriptor.append(")").append(OBJECT_TYPE).toString());
+      code.astore(receiver);
+      code.bind(done);
+    }
+
+    /**
+     * Push an array with the values of the given number of JVM locals.
+     */
+    private void pushArray(final int first, final int number) {
+      code.iconst(number);
+      code.anewarray(OBJECT);
+      for (int i = 0; i < number; i++) {
+        code.dup();
+        code.iconst(i);
+        code.aload(first + i);
+        code.aastore();
+      }
+    }
+
+    private void pushConstant(final Object value, final String type) {
+      int index = addConstant(value, type);
+      code.getstatic(className, "K" + index, "L" + type + ";");
+    }
+
+    /**
+     * @return the index of the constant in the class data
+     */
+    private int addConstant(final Object value, final String type) {
+      int index = -1;
+      for (int i = 0; i < constants.size(); i++) {
+        if (constants.get(i) == value && constantTypes.get(i).equals(type)) {
+          index = i;
+          break;
+        }
+      }
+      if (index == -1) {
+        index = constants.size();
+        constants.add(value);
+        constantTypes.add(type);
+        classFile.addField(ClassFileWriter.ACC_STATIC | ClassFileWriter.ACC_FINAL,
+            "K" + index, "L" + type + ";");
+      }
+      return index;
+    }
+
+    private void addConstructor() {
+      Code constructor = classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>",
+          "(L" + METHOD + ";)V");
+      constructor.aload(0);
+      constructor.aload(1);
+      constructor.invokespecial(COMPILED_CODE, "<init>", "(L" + METHOD + ";)V");
+      constructor.returnVoid();
+    }
+
+    private void addInvokeMethods() {
+      Code invoke = classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "invoke",
+          "([" + OBJECT_TYPE + ")" + OBJECT_TYPE);
+      for (int i = 0; i < numberOfArguments; i++) {
+        invoke.aload(1);
+        invoke.iconst(i);
+        invoke.aaload();
+      }
+      invoke.invokestatic(className, "execute", executeDescriptor);
+      invoke.areturn();
+
+      if (numberOfArguments <= MAX_INVOKE_ARGUMENTS) {
+        invoke = classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "invoke", executeDescriptor);
+        for (int i = 0; i < numberOfArguments; i++) {
+          invoke.aload(1 + i);
+        }
+        invoke.invokestatic(className, "execute", executeDescriptor);
+        invoke.areturn();
+      }
+
+      String descriptor = "([" + OBJECT_TYPE + "I)" + OBJECT_TYPE;
+      invoke = classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "invokeFrom", descriptor);
+      if (loopEntries != null) {
+        invoke.aload(1);
+        invoke.iload(2);
+        invoke.invokestatic(className, "executeFrom", descriptor);
+      } else {
+        invoke.aconstNull();
+      }
+      invoke.areturn();
+    }
+
+    private void addStaticInitializer() {
+      Code initializer = classFile.addMethod(ClassFileWriter.ACC_STATIC, "<clinit>", "()V");
+      initializer.invokestatic("java/lang/invoke/MethodHandles", "lookup",
+          "()Ljava/lang/invoke/MethodHandles$Lookup;");
+      initializer.ldc("_");
+      initializer.ldcClass("[Ljava/lang/Object;");
+      initializer.invokestatic("java/lang/invoke/MethodHandles", "classData",
+          "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)"
+              + "Ljava/lang/Object;");
+      initializer.checkcast("[Ljava/lang/Object;");
+      initializer.astore(0);
+      for (int i = 0; i < constants.size(); i++) {
+        initializer.aload(0);
+        initializer.iconst(i);
+        initializer.aaload();
+        initializer.checkcast(constantTypes.get(i));
+        initializer.putstatic(className, "K" + i, "L" + constantTypes.get(i) + ";");
+      }
+      initializer.returnVoid();
+    }
+  }
+}
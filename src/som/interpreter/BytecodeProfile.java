@@ -0,0 +1,109 @@
+package som.interpreter;
+
+import static som.interpreter.Bytecodes.HALT;
+import static som.interpreter.Bytecodes.JUMP;
+import static som.interpreter.Bytecodes.JUMP_BACKWARD;
+import static som.interpreter.Bytecodes.RETURN_FIELD;
+import static som.interpreter.Bytecodes.RETURN_LOCAL;
+import static som.interpreter.Bytecodes.RETURN_NON_LOCAL;
+import static som.interpreter.Bytecodes.RETURN_SELF;
+import static som.interpreter.Bytecodes.SEND;
+import static som.interpreter.Bytecodes.getBytecodeLength;
+import static som.interpreter.Bytecodes.getBytecodeName;
+import static som.interpreter.Bytecodes.isQuickenedSend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import som.vm.Universe;
+
+
+/**
+ * Counts how often sequences of two and three bytecodes are executed, to
+ * select the sequences that are worth a superinstruction. Each executed
+ * bytecode counts for the sequences that start with it in the method,
+ * independent of the bytecodes that are executed next. Quickened sends
+ * count as SEND, because the compiler only generates SEND.
+ */
+public final class BytecodeProfile {
+
+  // must be at least the number of bytecodes
+  private static final int MAX_BYTECODES = 64;
+
+  private final long[] pairs   = new long[MAX_BYTECODES * MAX_BYTECODES];
+  private final long[] triples = new long[MAX_BYTECODES * MAX_BYTECODES * MAX_BYTECODES];
+  private long         executed;
+
+  public void record(final byte[] bytecodes, final int bytecodeIndex) {
+    executed += 1;
+
+    int first = normalize(bytecodes[bytecodeIndex]);
+    if (endsSequence(first)) {
+      return;
+    }
+    int secondIndex = bytecodeIndex + getBytecodeLength(bytecodes[bytecodeIndex]);
+    if (secondIndex >= bytecodes.length) {
+      return;
+    }
+    int second = normalize(bytecodes[secondIndex]);
+    pairs[first * MAX_BYTECODES + second] += 1;
+
+    if (endsSequence(second)) {
+      return;
+    }
+    int thirdIndex = secondIndex + getBytecodeLength(bytecodes[secondIndex]);
+    if (thirdIndex >= bytecodes.length) {
+      return;
+    }
+    int third = normalize(bytecodes[thirdIndex]);
+    triples[(first * MAX_BYTECODES + second) * MAX_BYTECODES + third] += 1;
+  }
+
+  /**
+   * Bytecodes that do not continue with the next one, which can thus not be
+   * part of a superinstruction, except as its last bytecode.
+   */
+  private static boolean endsSequence(final int bytecode) {
+    return bytecode == JUMP || bytecode == JUMP_BACKWARD || bytecode == RETURN_LOCAL
+        || bytecode == RETURN_NON_LOCAL || bytecode == RETURN_SELF || bytecode == RETURN_FIELD
+        || bytecode == HALT;
+  }
+
+  private static int normalize(final byte bytecode) {
+    return isQuickenedSend(bytecode) ? SEND : bytecode;
+  }
+
+  public void print(final int numberOfSequences) {
+    Universe.errorPrintln("Bytecodes executed: " + executed);
+    Universe.errorPrintln("Most frequent pairs:");
+    printMostFrequent(pairs, 2, numberOfSequences);
+    Universe.errorPrintln("Most frequent triples:");
+    printMostFrequent(triples, 3, numberOfSequences);
+  }
+
+  private void printMostFrequent(final long[] counts, final int length,
+      final int numberOfSequences) {
+    List<Integer> sequences = new ArrayList<>();
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] > 0) {
+        sequences.add(i);
+      }
+    }
+    sequences.sort((a, b) -> Long.compare(counts[b], counts[a]));
+
+    for (int i = 0; i < Math.min(numberOfSequences, sequences.size()); i++) {
+      int sequence = sequences.get(i);
+      StringBuilder names = new StringBuilder();
+      for (int j = length - 1; j >= 0; j--) {
+        int bytecode = sequence;
+        for (int k = 0; k < j; k++) {
+          bytecode /= MAX_BYTECODES;
+        }
+        names.append(' ').append(getBytecodeName((byte) (bytecode % MAX_BYTECODES)));
+      }
+      long count = counts[sequence];
+      Universe.errorPrintln(String.format("%12d %5.1f%%", count, 100.0 * count / executed)
+          + names);
+    }
+  }
+}
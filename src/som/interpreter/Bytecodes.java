@@ -48,13 +48,91 @@ public class Bytecodes {
   public static final byte RETURN_LOCAL     = 14;
   public static final byte RETURN_NON_LOCAL = 15;
 
+  // Jumps generated for inlined control structures. Offsets are unsigned
+  // 16 bit values relative to the index of the jump bytecode itself.
+  // JUMP_IF_TRUE and JUMP_IF_FALSE have a second offset pointing to the code
+  // that does the original message send if the receiver is not a boolean.
+  public static final byte JUMP          = 16;
+  public static final byte JUMP_IF_TRUE  = 17;
+  public static final byte JUMP_IF_FALSE = 18;
+  public static final byte JUMP_BACKWARD = 19;
+
+  // Counted loops generated for inlined to:do:, to:by:do:, downTo:do:, and
+  // timesRepeat:. The counter, limit, and step are locals in the current
+  // context. JUMP_IF_NOT_INT checks that the given number of stack elements
+  // are integers and jumps to the original message send otherwise.
+  public static final byte JUMP_IF_NOT_INT = 20;
+  public static final byte JUMP_IF_GREATER = 21;
+  public static final byte JUMP_IF_LESS    = 22;
+  public static final byte ADD_TO_LOCAL    = 23;
+
+  // Quickened sends. The interpreter rewrites a SEND to one of these when
+  // it sees a send of the selector to two integers, and back to SEND when
+  // it sees other operands. The operand is the index of the selector, as
+  // for SEND.
+  public static final byte SEND_INT_ADD   = 24;
+  public static final byte SEND_INT_SUB   = 25;
+  public static final byte SEND_INT_MUL   = 26;
+  public static final byte SEND_INT_LESS  = 27;
+  public static final byte SEND_INT_EQUAL = 28;
+
+  // Superinstructions for frequent sequences of bytecodes, selected with
+  // the -bcprofile option. They replace the first bytecode of the sequence,
+  // and leave the others and all operands in place, so that a superinstruction
+  // has the length of the whole sequence, and jumps into the sequence still
+  // work. STORE_LOCAL and STORE_FIELD are DUP, POP_LOCAL or POP_FIELD, POP.
+  public static final byte STORE_LOCAL      = 29;
+  public static final byte STORE_FIELD      = 30;
+  public static final byte PUSH_LOCAL_CONST = 31;
+  public static final byte PUSH_LOCAL_LOCAL = 32;
+  public static final byte POP_ADD_TO_LOCAL = 33;
+
+  // Specialized bytecodes without operands for the most frequent constants,
+  // self, and returns. PUSH_SELF pushes the receiver of the method, also in
+  // blocks. RETURN_SELF and RETURN_FIELD return self or a field from a
+  // method, and have the field index as operand.
+  public static final byte PUSH_0       = 34;
+  public static final byte PUSH_1       = 35;
+  public static final byte PUSH_NIL     = 36;
+  public static final byte PUSH_SELF    = 37;
+  public static final byte RETURN_SELF  = 38;
+  public static final byte RETURN_FIELD = 39;
+
+  // Accesses to variables of the current context, level 0, with a fixed
+  // index, and to variables of the enclosing context, level 1. Like the
+  // superinstructions, they replace the opcode of PUSH_LOCAL, PUSH_ARGUMENT,
+  // or STORE_LOCAL and leave its operands in place, so that they have the
+  // same length. Argument 0 is self, and pushed with PUSH_SELF.
+  public static final byte PUSH_LOCAL_0     = 40;
+  public static final byte PUSH_LOCAL_1     = 41;
+  public static final byte PUSH_LOCAL_2     = 42;
+  public static final byte PUSH_ARGUMENT_1  = 43;
+  public static final byte PUSH_ARGUMENT_2  = 44;
+  public static final byte PUSH_OUTER_LOCAL = 45;
+  public static final byte PUSH_OUTER_ARG   = 46;
+  public static final byte STORE_LOCAL_0    = 47;
+  public static final byte STORE_LOCAL_1    = 48;
+  public static final byte STORE_LOCAL_2    = 49;
+  public static final byte STORE_OUTER_LOC  = 50;
+
   private static final String[] PADDED_BYTECODE_NAMES = new String[] {
       "HALT            ", "DUP             ", "PUSH_LOCAL      ",
       "PUSH_ARGUMENT   ", "PUSH_FIELD      ", "PUSH_BLOCK      ",
       "PUSH_CONSTANT   ", "PUSH_GLOBAL     ", "POP             ",
       "POP_LOCAL       ", "POP_ARGUMENT    ", "POP_FIELD       ",
       "SEND            ", "SUPER_SEND      ", "RETURN_LOCAL    ",
-      "RETURN_NON_LOCAL"
+      "RETURN_NON_LOCAL", "JUMP            ", "JUMP_IF_TRUE    ",
+      "JUMP_IF_FALSE   ", "JUMP_BACKWARD   ", "JUMP_IF_NOT_INT ",
+      "JUMP_IF_GREATER ", "JUMP_IF_LESS    ", "ADD_TO_LOCAL    ",
+      "SEND_INT_ADD    ", "SEND_INT_SUB    ", "SEND_INT_MUL    ",
+      "SEND_INT_LESS   ", "SEND_INT_EQUAL  ", "STORE_LOCAL     ",
+      "STORE_FIELD     ", "PUSH_LOCAL_CONST", "PUSH_LOCAL_LOCAL",
+      "POP_ADD_TO_LOCAL", "PUSH_0          ", "PUSH_1          ",
+      "PUSH_NIL        ", "PUSH_SELF       ", "RETURN_SELF     ",
+      "RETURN_FIELD    ", "PUSH_LOCAL_0    ", "PUSH_LOCAL_1    ",
+      "PUSH_LOCAL_2    ", "PUSH_ARGUMENT_1 ", "PUSH_ARGUMENT_2 ",
+      "PUSH_OUTER_LOCAL", "PUSH_OUTER_ARG  ", "STORE_LOCAL_0   ",
+      "STORE_LOCAL_1   ", "STORE_LOCAL_2   ", "STORE_OUTER_LOC "
   };
 
   private static final String[] BYTECODE_NAMES =
@@ -83,6 +161,34 @@ public class Bytecodes {
     return BYTECODE_LENGTH[bytecode];
   }
 
+  public static boolean isQuickenedSend(final byte bytecode) {
+    return bytecode >= SEND_INT_ADD && bytecode <= SEND_INT_EQUAL;
+  }
+
+  /**
+   * @return whether the bytecode starts with the push of a local, and has
+   *         the index and context level of the local as first operands
+   */
+  public static boolean isPushLocal(final byte bytecode) {
+    return bytecode == PUSH_LOCAL || bytecode == PUSH_LOCAL_CONST
+        || bytecode == PUSH_LOCAL_LOCAL || bytecode == PUSH_OUTER_LOCAL
+        || bytecode >= PUSH_LOCAL_0 && bytecode <= PUSH_LOCAL_2;
+  }
+
+  /**
+   * @return whether the bytecode is the push of an argument, and has the
+   *         index and context level of the argument as operands
+   */
+  public static boolean isPushArgument(final byte bytecode) {
+    return bytecode == PUSH_ARGUMENT || bytecode == PUSH_ARGUMENT_1
+        || bytecode == PUSH_ARGUMENT_2 || bytecode == PUSH_OUTER_ARG;
+  }
+
+  public static int getJumpOffset(final byte low, final byte high) {
+    // Decode a jump offset from the two bytes following a jump bytecode
+    return (low & 0xFF) | ((high & 0xFF) << 8);
+  }
+
   // Static array holding lengths of each bytecode
   private static final int[] BYTECODE_LENGTH = new int[] {
       1, // HALT
@@ -100,7 +206,42 @@ public class Bytecodes {
       2, // SEND
       2, // SUPER_SEND
       1, // RETURN_LOCAL
-      1 // RETURN_NON_LOCAL
+      1, // RETURN_NON_LOCAL
+      3, // JUMP
+      5, // JUMP_IF_TRUE
+      5, // JUMP_IF_FALSE
+      3, // JUMP_BACKWARD
+      4, // JUMP_IF_NOT_INT
+      5, // JUMP_IF_GREATER
+      5, // JUMP_IF_LESS
+      3, // ADD_TO_LOCAL
+      2, // SEND_INT_ADD
+      2, // SEND_INT_SUB
+      2, // SEND_INT_MUL
+      2, // SEND_INT_LESS
+      2, // SEND_INT_EQUAL
+      5, // STORE_LOCAL
+      4, // STORE_FIELD
+      5, // PUSH_LOCAL_CONST
+      6, // PUSH_LOCAL_LOCAL
+      4, // POP_ADD_TO_LOCAL
+      1, // PUSH_0
+      1, // PUSH_1
+      1, // PUSH_NIL
+      1, // PUSH_SELF
+      1, // RETURN_SELF
+      2, // RETURN_FIELD
+      3, // PUSH_LOCAL_0
+      3, // PUSH_LOCAL_1
+      3, // PUSH_LOCAL_2
+      3, // PUSH_ARGUMENT_1
+      3, // PUSH_ARGUMENT_2
+      3, // PUSH_OUTER_LOCAL
+      3, // PUSH_OUTER_ARG
+      5, // STORE_LOCAL_0
+      5, // STORE_LOCAL_1
+      5, // STORE_LOCAL_2
+      5 // STORE_OUTER_LOC
   };
 
 }
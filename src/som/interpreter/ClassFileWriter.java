@@ -0,0 +1,686 @@
+package som.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A minimal writer of JVM class files, with only what the baseline compiler
+ * needs. The code of a method is written instruction by instruction, and
+ * branches go to labels, which are bound to the current position later.
+ *
+ * The operand stack of the JVM is empty at all labels, and all locals of a
+ * method have the same type at all labels, so that the frames for the
+ * StackMapTable do not need to be computed. The type is set with
+ * {@link Code#setFrameLocals(int, String)}, and the locals need to be
+ * initialized before the first label.
+ */
+final class ClassFileWriter {
+
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_STATIC = 0x0008;
+  static final int ACC_FINAL  = 0x0010;
+  static final int ACC_SUPER  = 0x0020;
+
+  private static final int ACONST_NULL   = 0x01;
+  private static final int ICONST_0      = 0x03;
+  private static final int BIPUSH        = 0x10;
+  private static final int SIPUSH        = 0x11;
+  private static final int LDC_W         = 0x13;
+  private static final int ILOAD         = 0x15;
+  private static final int ALOAD         = 0x19;
+  private static final int ILOAD_0       = 0x1a;
+  private static final int ALOAD_0       = 0x2a;
+  private static final int AALOAD        = 0x32;
+  private static final int ISTORE        = 0x36;
+  private static final int ASTORE        = 0x3a;
+  private static final int ISTORE_0      = 0x3b;
+  private static final int ASTORE_0      = 0x4b;
+  private static final int AASTORE       = 0x53;
+  private static final int POP           = 0x57;
+  private static final int DUP           = 0x59;
+  private static final int I2L           = 0x85;
+  private static final int ARETURN       = 0xb0;
+  private static final int RETURN        = 0xb1;
+  private static final int GETSTATIC     = 0xb2;
+  private static final int PUTSTATIC     = 0xb3;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int INVOKESTATIC  = 0xb8;
+  private static final int INVOKEDYNAMIC = 0xba;
+  private static final int ANEWARRAY     = 0xbd;
+  private static final int CHECKCAST     = 0xc0;
+  private static final int INSTANCEOF    = 0xc1;
+  private static final int WIDE          = 0xc4;
+
+  // the branches, which take a label
+  static final int IFEQ      = 0x99;
+  static final int IFNE      = 0x9a;
+  static final int IF_ICMPEQ = 0x9f;
+  static final int IF_ACMPEQ = 0xa5;
+  static final int IF_ACMPNE = 0xa6;
+  static final int GOTO      = 0xa7;
+  static final int IFNULL    = 0xc6;
+
+  private static final int CONSTANT_UTF8          = 1;
+  private static final int CONSTANT_INTEGER       = 3;
+  private static final int CONSTANT_CLASS         = 7;
+  private static final int CONSTANT_STRING        = 8;
+  private static final int CONSTANT_FIELDREF      = 9;
+  private static final int CONSTANT_METHODREF     = 10;
+  private static final int CONSTANT_NAMEANDTYPE   = 12;
+  private static final int CONSTANT_METHODHANDLE  = 15;
+  private static final int CONSTANT_INVOKEDYNAMIC = 18;
+
+  private static final int REF_INVOKESTATIC = 6;
+
+  private static final int FULL_FRAME          = 255;
+  private static final int SAME_FRAME_EXTENDED = 251;
+  private static final int ITEM_OBJECT         = 7;
+
+  private static final int VERSION_JAVA_8 = 52;
+
+  private final String className;
+  private final String superClassName;
+
+  private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+  private final DataOutputStream      constantPool      =
+      new DataOutputStream(constantPoolBytes);
+  private final Map<String, Integer>  constants         = new HashMap<>();
+  private int                         constantPoolCount = 1;
+
+  private final ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+  private final DataOutputStream      fields     = new DataOutputStream(fieldBytes);
+  private int                         fieldCount;
+
+  private final List<Code> methods = new ArrayList<>();
+
+  // the bootstrap methods of the invokedynamic instructions, as indices of
+  // the method handle followed by the indices of the static arguments
+  private final List<int[]>          bootstrapMethods       = new ArrayList<>();
+  private final Map<String, Integer> bootstrapMethodIndices = new HashMap<>();
+
+  ClassFileWriter(final String className, final String superClassName) {
+    this.className = className;
+    this.superClassName = superClassName;
+  }
+
+  String getClassName() {
+    return className;
+  }
+
+  void addField(final int access, final String name, final String descriptor) {
+    write(fields, () -> {
+      fields.writeShort(access);
+      fields.writeShort(utf8(name));
+      fields.writeShort(utf8(descriptor));
+      fields.writeShort(0);
+    });
+    fieldCount += 1;
+  }
+
+  Code addMethod(final int access, final String name, final String descriptor) {
+    Code code = new Code(access, name, descriptor);
+    methods.add(code);
+    return code;
+  }
+
+  /**
+   * Add a bootstrap method for invokedynamic instructions, which is a static
+   * method that takes integers as static arguments.
+   *
+   * @return the index of the bootstrap method, for
+   *         {@link Code#invokedynamic(int, String, String)}
+   */
+  int addBootstrapMethod(final String owner, final String methodName,
+      final String methodDescriptor, final int... arguments) {
+    StringBuilder key = new StringBuilder(owner + "." + methodName + methodDescriptor);
+    for (int argument : arguments) {
+      key.append(' ').append(argument);
+    }
+    Integer existing = bootstrapMethodIndices.get(key.toString());
+    if (existing != null) {
+      return existing;
+    }
+
+    int method = memberConstant(CONSTANT_METHODREF, owner, methodName, methodDescriptor);
+    int[] entry = new int[arguments.length + 1];
+    entry[0] = constant("H" + method, () -> {
+      constantPool.writeByte(CONSTANT_METHODHANDLE);
+      constantPool.writeByte(REF_INVOKESTATIC);
+      constantPool.writeShort(method);
+    });
+    for (int i = 0; i < arguments.length; i++) {
+      entry[i + 1] = integerConstant(arguments[i]);
+    }
+    int index = bootstrapMethods.size();
+    bootstrapMethods.add(entry);
+    bootstrapMethodIndices.put(key.toString(), index);
+    return index;
+  }
+
+  byte[] toByteArray() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    // all constants need to be in the pool before it is written
+    int thisClass = classConstant(className);
+    int superClass = classConstant(superClassName);
+    List<byte[]> methodInfos = new ArrayList<>();
+    for (Code code : methods) {
+      methodInfos.add(code.toByteArray());
+    }
+    int bootstrapMethodsAttribute = bootstrapMethods.isEmpty() ? 0 : utf8("BootstrapMethods");
+    if (constantPoolCount > 0xFFFF) {
+      throw new IllegalStateException("too many constants");
+    }
+
+    write(out, () -> {
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(VERSION_JAVA_8);
+      out.writeShort(constantPoolCount);
+      constantPoolBytes.writeTo(out);
+      out.writeShort(ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0);
+      out.writeShort(fieldCount);
+      fieldBytes.writeTo(out);
+      out.writeShort(methodInfos.size());
+      for (byte[] info : methodInfos) {
+        out.write(info);
+      }
+      if (bootstrapMethods.isEmpty()) {
+        out.writeShort(0);
+      } else {
+        out.writeShort(1);
+        out.writeShort(bootstrapMethodsAttribute);
+        int attributeLength = 2;
+        for (int[] entry : bootstrapMethods) {
+          attributeLength += 2 * (entry.length + 1);
+        }
+        out.writeInt(attributeLength);
+        out.writeShort(bootstrapMethods.size());
+        for (int[] entry : bootstrapMethods) {
+          out.writeShort(entry[0]);
+          out.writeShort(entry.length - 1);
+          for (int i = 1; i < entry.length; i++) {
+            out.writeShort(entry[i]);
+          }
+        }
+      }
+    });
+    return bytes.toByteArray();
+  }
+
+  private int utf8(final String value) {
+    return constant("U" + value, () -> {
+      constantPool.writeByte(CONSTANT_UTF8);
+      constantPool.writeUTF(value);
+    });
+  }
+
+  private int classConstant(final String internalName) {
+    int name = utf8(internalName);
+    return constant("C" + internalName, () -> {
+      constantPool.writeByte(CONSTANT_CLASS);
+      constantPool.writeShort(name);
+    });
+  }
+
+  private int stringConstant(final String value) {
+    int string = utf8(value);
+    return constant("S" + value, () -> {
+      constantPool.writeByte(CONSTANT_STRING);
+      constantPool.writeShort(string);
+    });
+  }
+
+  private int integerConstant(final int value) {
+    return constant("I" + value, () -> {
+      constantPool.writeByte(CONSTANT_INTEGER);
+      constantPool.writeInt(value);
+    });
+  }
+
+  private int memberConstant(final int tag, final String owner, final String name,
+      final String descriptor) {
+    int ownerClass = classConstant(owner);
+    int nameAndType = nameAndType(name, descriptor);
+    return constant(tag + owner + "." + name + descriptor, () -> {
+      constantPool.writeByte(tag);
+      constantPool.writeShort(ownerClass);
+      constantPool.writeShort(nameAndType);
+    });
+  }
+
+  private int nameAndType(final String name, final String descriptor) {
+    int nameIndex = utf8(name);
+    int descriptorIndex = utf8(descriptor);
+    return constant("N" + name + ":" + descriptor, () -> {
+      constantPool.writeByte(CONSTANT_NAMEANDTYPE);
+      constantPool.writeShort(nameIndex);
+      constantPool.writeShort(descriptorIndex);
+    });
+  }
+
+  private int constant(final String key, final Writer writer) {
+    Integer index = constants.get(key);
+    if (index != null) {
+      return index;
+    }
+    write(constantPool, writer);
+    int result = constantPoolCount;
+    constantPoolCount += 1;
+    constants.put(key, result);
+    return result;
+  }
+
+  private interface Writer {
+    void write() throws IOException;
+  }
+
+  private static void write(final DataOutputStream out, final Writer writer) {
+    try {
+      writer.write();
+    } catch (IOException e) {
+      // the streams write to memory
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the number of stack slots taken by the arguments of a method
+   *         with the given descriptor, or by its result if returnSize is set
+   */
+  private static int getSize(final String descriptor, final boolean returnSize) {
+    int size = 0;
+    int i = 1;
+    while (descriptor.charAt(i) != ')') {
+      char c = descriptor.charAt(i);
+      while (c == '[') {
+        i += 1;
+        c = descriptor.charAt(i);
+      }
+      if (c == 'L') {
+        i = descriptor.indexOf(';', i);
+      }
+      size += (c == 'J' || c == 'D') && descriptor.charAt(i - 1) != '[' ? 2 : 1;
+      i += 1;
+    }
+    if (returnSize) {
+      char result = descriptor.charAt(i + 1);
+      return result == 'V' ? 0 : result == 'J' || result == 'D' ? 2 : 1;
+    }
+    return size;
+  }
+
+  /**
+   * A position in the code of a method, which branches can refer to before
+   * it is bound.
+   */
+  static final class Label {
+    private int offset = -1;
+
+    // the offsets of the branches to this label, and of their operands
+    private final List<int[]> branches = new ArrayList<>(2);
+  }
+
+  /**
+   * The code of a method.
+   */
+  final class Code {
+    private final int    access;
+    private final String name;
+    private final String descriptor;
+
+    private byte[] code = new byte[256];
+    private int    length;
+
+    private int stackSize;
+    private int maxStack;
+    private int maxLocals;
+
+    // the locals at all labels, and the offsets of the labels
+    private int                 numberOfFrameLocals;
+    private int                 frameLocalType;
+    private final List<Integer> frameOffsets = new ArrayList<>();
+
+    private Code(final int access, final String name, final String descriptor) {
+      this.access = access;
+      this.name = name;
+      this.descriptor = descriptor;
+      this.maxLocals = getSize(descriptor, false) + ((access & ACC_STATIC) == 0 ? 1 : 0);
+    }
+
+    /**
+     * Set the locals at all labels to the given number of locals of the
+     * given class.
+     */
+    void setFrameLocals(final int numberOfLocals, final String internalClassName) {
+      numberOfFrameLocals = numberOfLocals;
+      frameLocalType = classConstant(internalClassName);
+    }
+
+    Label newLabel() {
+      return new Label();
+    }
+
+    void bind(final Label label) {
+      assert label.offset == -1 : "label is already bound";
+      assert stackSize == 0 : "the operand stack needs to be empty at a label";
+      label.offset = length;
+      for (int[] branch : label.branches) {
+        patchBranch(branch[0], branch[1], length);
+      }
+      label.branches.clear();
+
+      if (frameOffsets.isEmpty() || frameOffsets.get(frameOffsets.size() - 1) != length) {
+        frameOffsets.add(length);
+      }
+    }
+
+    void branch(final int opcode, final Label label) {
+      int position = length;
+      emit(opcode);
+      emitShort(0);
+      if (label.offset != -1) {
+        patchBranch(position, position + 1, label.offset);
+      } else {
+        label.branches.add(new int[] {position, position + 1});
+      }
+
+      switch (opcode) {
+        case IFEQ:
+        case IFNE:
+        case IFNULL:
+          adjustStack(-1);
+          break;
+        case IF_ICMPEQ:
+        case IF_ACMPEQ:
+        case IF_ACMPNE:
+          adjustStack(-2);
+          break;
+        default:
+          // the code after a goto is only reachable through a label
+          stackSize = 0;
+          break;
+      }
+    }
+
+    private void patchBranch(final int position, final int operand, final int target) {
+      int offset = target - position;
+      if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+        throw new IllegalStateException("branch offset out of range");
+      }
+      code[operand] = (byte) (offset >> 8);
+      code[operand + 1] = (byte) offset;
+    }
+
+    void aconstNull() {
+      emit(ACONST_NULL);
+      adjustStack(1);
+    }
+
+    void iconst(final int value) {
+      if (value >= -1 && value <= 5) {
+        emit(ICONST_0 + value);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        emit(BIPUSH);
+        emit(value);
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        emit(SIPUSH);
+        emitShort(value);
+      } else {
+        emit(LDC_W);
+        emitShort(integerConstant(value));
+      }
+      adjustStack(1);
+    }
+
+    void lconst(final int value) {
+      iconst(value);
+      emit(I2L);
+      adjustStack(1);
+    }
+
+    void ldc(final String value) {
+      emit(LDC_W);
+      emitShort(stringConstant(value));
+      adjustStack(1);
+    }
+
+    void ldcClass(final String internalName) {
+      emit(LDC_W);
+      emitShort(classConstant(internalName));
+      adjustStack(1);
+    }
+
+    void aload(final int local) {
+      localInstruction(ALOAD, ALOAD_0, local);
+      adjustStack(1);
+    }
+
+    void astore(final int local) {
+      localInstruction(ASTORE, ASTORE_0, local);
+      adjustStack(-1);
+    }
+
+    void iload(final int local) {
+      localInstruction(ILOAD, ILOAD_0, local);
+      adjustStack(1);
+    }
+
+    void istore(final int local) {
+      localInstruction(ISTORE, ISTORE_0, local);
+      adjustStack(-1);
+    }
+
+    private void localInstruction(final int opcode, final int shortOpcode, final int local) {
+      if (local <= 3) {
+        emit(shortOpcode + local);
+      } else if (local <= 0xFF) {
+        emit(opcode);
+        emit(local);
+      } else {
+        emit(WIDE);
+        emit(opcode);
+        emitShort(local);
+      }
+      maxLocals = Math.max(maxLocals, local + 1);
+    }
+
+    void aaload() {
+      emit(AALOAD);
+      adjustStack(-1);
+    }
+
+    void aastore() {
+      emit(AASTORE);
+      adjustStack(-3);
+    }
+
+    void pop() {
+      emit(POP);
+      adjustStack(-1);
+    }
+
+    void dup() {
+      emit(DUP);
+      adjustStack(1);
+    }
+
+    void anewarray(final String internalClassName) {
+      emit(ANEWARRAY);
+      emitShort(classConstant(internalClassName));
+    }
+
+    void checkcast(final String internalClassName) {
+      emit(CHECKCAST);
+      emitShort(classConstant(internalClassName));
+    }
+
+    void instanceOf(final String internalClassName) {
+      emit(INSTANCEOF);
+      emitShort(classConstant(internalClassName));
+    }
+
+    void getstatic(final String owner, final String fieldName, final String fieldDescriptor) {
+      emit(GETSTATIC);
+      emitShort(memberConstant(CONSTANT_FIELDREF, owner, fieldName, fieldDescriptor));
+      adjustStack(1);
+    }
+
+    void putstatic(final String owner, final String fieldName, final String fieldDescriptor) {
+      emit(PUTSTATIC);
+      emitShort(memberConstant(CONSTANT_FIELDREF, owner, fieldName, fieldDescriptor));
+      adjustStack(-1);
+    }
+
+    void invokestatic(final String owner, final String methodName,
+        final String methodDescriptor) {
+      invoke(INVOKESTATIC, owner, methodName, methodDescriptor, 0);
+    }
+
+    void invokevirtual(final String owner, final String methodName,
+        final String methodDescriptor) {
+      invoke(INVOKEVIRTUAL, owner, methodName, methodDescriptor, 1);
+    }
+
+    void invokespecial(final String owner, final String methodName,
+        final String methodDescriptor) {
+      invoke(INVOKESPECIAL, owner, methodName, methodDescriptor, 1);
+    }
+
+    private void invoke(final int opcode, final String owner, final String methodName,
+        final String methodDescriptor, final int receiverSize) {
+      emit(opcode);
+      emitShort(memberConstant(CONSTANT_METHODREF, owner, methodName, methodDescriptor));
+      adjustStack(getSize(methodDescriptor, true) - getSize(methodDescriptor, false)
+          - receiverSize);
+    }
+
+    void invokedynamic(final int bootstrapMethod, final String methodName,
+        final String methodDescriptor) {
+      int nameAndType = nameAndType(methodName, methodDescriptor);
+      emit(INVOKEDYNAMIC);
+      emitShort(constant("D" + bootstrapMethod + ":" + methodName + methodDescriptor, () -> {
+        constantPool.writeByte(CONSTANT_INVOKEDYNAMIC);
+        constantPool.writeShort(bootstrapMethod);
+        constantPool.writeShort(nameAndType);
+      }));
+      emitShort(0);
+      adjustStack(getSize(methodDescriptor, true) - getSize(methodDescriptor, false));
+    }
+
+    void areturn() {
+      emit(ARETURN);
+      stackSize = 0;
+    }
+
+    void returnVoid() {
+      emit(RETURN);
+      stackSize = 0;
+    }
+
+    private void adjustStack(final int delta) {
+      stackSize += delta;
+      maxStack = Math.max(maxStack, stackSize);
+    }
+
+    private void emit(final int value) {
+      if (length == code.length) {
+        byte[] larger = new byte[code.length * 2];
+        System.arraycopy(code, 0, larger, 0, length);
+        code = larger;
+      }
+      code[length] = (byte) value;
+      length += 1;
+    }
+
+    private void emitShort(final int value) {
+      emit(value >> 8);
+      emit(value);
+    }
+
+    private byte[] toByteArray() {
+      if (length > 0xFFFF) {
+        throw new IllegalStateException("method too large");
+      }
+      maxLocals = Math.max(maxLocals, numberOfFrameLocals);
+
+      int nameIndex = utf8(name);
+      int descriptorIndex = utf8(descriptor);
+      int codeAttribute = utf8("Code");
+      int stackMapAttribute = frameOffsets.isEmpty() ? 0 : utf8("StackMapTable");
+      byte[] stackMap = stackMapTable();
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      write(out, () -> {
+        out.writeShort(access);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+        out.writeShort(1);
+
+        out.writeShort(codeAttribute);
+        int attributesLength = stackMap.length == 0 ? 0 : 6 + stackMap.length;
+        out.writeInt(12 + length + attributesLength);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(0);
+        if (stackMap.length == 0) {
+          out.writeShort(0);
+        } else {
+          out.writeShort(1);
+          out.writeShort(stackMapAttribute);
+          out.writeInt(stackMap.length);
+          out.write(stackMap);
+        }
+      });
+      return bytes.toByteArray();
+    }
+
+    private byte[] stackMapTable() {
+      if (frameOffsets.isEmpty()) {
+        return new byte[0];
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      write(out, () -> {
+        out.writeShort(frameOffsets.size());
+
+        // the first frame has all locals, the others the same ones
+        int previous = -1;
+        for (int offset : frameOffsets) {
+          if (previous == -1) {
+            out.writeByte(FULL_FRAME);
+            out.writeShort(offset);
+            out.writeShort(numberOfFrameLocals);
+            for (int i = 0; i < numberOfFrameLocals; i++) {
+              out.writeByte(ITEM_OBJECT);
+              out.writeShort(frameLocalType);
+            }
+            out.writeShort(0);
+          } else if (offset - previous - 1 < 64) {
+            out.writeByte(offset - previous - 1);
+          } else {
+            out.writeByte(SAME_FRAME_EXTENDED);
+            out.writeShort(offset - previous - 1);
+          }
+          previous = offset;
+        }
+      });
+      return bytes.toByteArray();
+    }
+  }
+}
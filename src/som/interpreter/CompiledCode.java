@@ -0,0 +1,122 @@
+package som.interpreter;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+
+import som.compiler.ProgramDefinitionError;
+import som.vmobjects.SAbstractObject;
+import som.vmobjects.SMethod;
+
+
+/**
+ * The JVM code of a method, compiled by the {@link BaselineCompiler}. The
+ * arguments include the receiver as first element. The generated subclass
+ * overrides the form that takes an array, and the one for the number of
+ * arguments of the method, if there is one.
+ *
+ * The static method of the generated class is also available as a method
+ * handle, which the call sites of other compiled code link to.
+ *
+ * It also implements {@link #invokeFrom}, with which the interpreter
+ * continues an activation at the header of a loop.
+ *
+ * The code may assume the values of globals. It is valid until one of them
+ * changes, after which its activations continue in the interpreter when
+ * they reach code that depends on the assumption, see {@link Deoptimizer}.
+ */
+public abstract class CompiledCode {
+
+  private final SMethod method;
+
+  private MethodHandle executeHandle;
+
+  // invalidated when an assumption of the code does not hold anymore
+  private SwitchPoint validity;
+
+  protected CompiledCode(final SMethod method) {
+    this.method = method;
+  }
+
+  public SMethod getMethod() {
+    return method;
+  }
+
+  MethodHandle getExecuteHandle() {
+    return executeHandle;
+  }
+
+  void setExecuteHandle(final MethodHandle handle) {
+    executeHandle = handle;
+  }
+
+  SwitchPoint getValidity() {
+    return validity;
+  }
+
+  void setValidity(final SwitchPoint validity) {
+    this.validity = validity;
+  }
+
+  public boolean isValid() {
+    return !validity.hasBeenInvalidated();
+  }
+
+  /**
+   * Bootstrap the check of the validity of compiled code, which is a
+   * constant until the code is invalidated. The switch point is a constant
+   * of the compiled class, which it has as its class data.
+   */
+  public static CallSite bootstrapValidity(final MethodHandles.Lookup lookup,
+      final String name, final MethodType type, final int validityIndex)
+      throws IllegalAccessException {
+    SwitchPoint validity =
+        (SwitchPoint) MethodHandles.classData(lookup, "_", Object[].class)[validityIndex];
+    MethodHandle valid = MethodHandles.constant(boolean.class, true);
+    MethodHandle invalid = MethodHandles.constant(boolean.class, false);
+    return new ConstantCallSite(validity.guardWithTest(valid, invalid));
+  }
+
+  /**
+   * Continue an activation at a loop entry.
+   *
+   * @param state the arguments, locals, and stack elements of the
+   *          activation, in an array of the size of its frame
+   * @return the result of the activation, or null if the code has no loop
+   *         entry at the bytecode index, in which case the activation
+   *         stays in the interpreter
+   */
+  public abstract SAbstractObject invokeFrom(SAbstractObject[] state, int bytecodeIndex)
+      throws ProgramDefinitionError;
+
+  public abstract SAbstractObject invoke(SAbstractObject[] arguments)
+      throws ProgramDefinitionError;
+
+  public SAbstractObject invoke(final SAbstractObject self) throws ProgramDefinitionError {
+    return invoke(new SAbstractObject[] {self});
+  }
+
+  public SAbstractObject invoke(final SAbstractObject self, final SAbstractObject argument)
+      throws ProgramDefinitionError {
+    return invoke(new SAbstractObject[] {self, argument});
+  }
+
+  public SAbstractObject invoke(final SAbstractObject self, final SAbstractObject argument1,
+      final SAbstractObject argument2) throws ProgramDefinitionError {
+    return invoke(new SAbstractObject[] {self, argument1, argument2});
+  }
+
+  public SAbstractObject invoke(final SAbstractObject self, final SAbstractObject argument1,
+      final SAbstractObject argument2, final SAbstractObject argument3)
+      throws ProgramDefinitionError {
+    return invoke(new SAbstractObject[] {self, argument1, argument2, argument3});
+  }
+
+  @Override
+  public String toString() {
+    return "CompiledCode(" + method + ")";
+  }
+}
@@ -0,0 +1,110 @@
+package som.interpreter;
+
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import som.vm.Universe;
+import som.vmobjects.SMethod;
+import som.vmobjects.SSymbol;
+
+
+/**
+ * Keeps track of the assumptions of compiled code, and invalidates the code
+ * when they do not hold anymore.
+ *
+ * Compiled code assumes that the globals it reads keep their values. When
+ * one is rebound, the code that read it is invalidated, and its method is
+ * interpreted until it is compiled again. Activations of the code that are
+ * still running check the validity before they read the global, and
+ * continue in the interpreter if it changed, which rebuilds their frame
+ * from the state of the compiled code. Globals that were rebound once are
+ * not assumed again.
+ *
+ * The other assumptions of compiled code do not need it. The send sites
+ * relink when classes change or a receiver is not in the inline cache, see
+ * {@link SendSite}, and the paths for receivers of inlined control
+ * structures that are not booleans or integers continue in the interpreter
+ * anyway, see {@link BaselineCompiler}.
+ */
+final class Deoptimizer {
+
+  // the valid compiled code that assumed the value of a global
+  private final Map<SSymbol, List<CompiledCode>> globalDependents = new HashMap<>();
+  private final Set<SSymbol>                     reboundGlobals   = new HashSet<>();
+
+  // the number of invalidated compiled methods, and of activations that
+  // continued in the interpreter because of it, printed on exit if enabled
+  private long    numberOfInvalidations;
+  private long    numberOfDeoptimizations;
+  private boolean printStatistics;
+
+  Deoptimizer() {
+    printStatistics = Boolean.getBoolean("som.printDeoptimizationStatistics");
+  }
+
+  /**
+   * @return whether compiled code can assume the value of the global
+   */
+  boolean canAssumeGlobal(final SSymbol name) {
+    return !reboundGlobals.contains(name);
+  }
+
+  void addGlobalDependent(final SSymbol name, final CompiledCode code) {
+    globalDependents.computeIfAbsent(name, k -> new ArrayList<>()).add(code);
+  }
+
+  /**
+   * Invalidate the compiled code that assumed the previous value of the
+   * global.
+   */
+  void globalChanged(final SSymbol name) {
+    List<CompiledCode> dependents = globalDependents.remove(name);
+    if (dependents == null) {
+      return;
+    }
+    reboundGlobals.add(name);
+    for (CompiledCode code : dependents) {
+      invalidate(code);
+    }
+  }
+
+  private void invalidate(final CompiledCode code) {
+    if (!code.isValid()) {
+      return;
+    }
+    SwitchPoint.invalidateAll(new SwitchPoint[] {code.getValidity()});
+    numberOfInvalidations += 1;
+
+    // the method is compiled again when the tiering policy decides so, with
+    // the counts it has, and the new code does not assume the rebound global
+    SMethod method = code.getMethod();
+    if (method.getCompiledCode() == code) {
+      method.setCompiledCode(null);
+    }
+  }
+
+  /**
+   * Count an activation of invalidated code that continues in the
+   * interpreter.
+   */
+  void countDeoptimization() {
+    numberOfDeoptimizations += 1;
+  }
+
+  void printStatistics() {
+    if (!printStatistics) {
+      return;
+    }
+    Universe.errorPrintln("Deoptimization: " + numberOfInvalidations
+        + " compiled methods invalidated, " + numberOfDeoptimizations
+        + " activations continued in the interpreter");
+    for (SSymbol name : reboundGlobals) {
+      Universe.errorPrintln("  rebound global: " + name.getEmbeddedString());
+    }
+  }
+}
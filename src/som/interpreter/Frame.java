@@ -35,7 +35,7 @@ import som.vmobjects.SObject;
  * Frame layout:
  *
  * +-----------------+
- * | Arguments       | 0
+ * | Arguments       | <-- base
  * +-----------------+
  * | Local Variables | <-- localOffset
  * +-----------------+
@@ -43,23 +43,82 @@ import som.vmobjects.SObject;
  * | ...             |
  * +-----------------+
  * @formatter:on
+ *
+ * Frames are allocated on the value stack of the interpreter, which is
+ * shared by all activations. A frame that is captured as the context of a
+ * block is materialized, i.e., it is moved into an array of its own, so that
+ * it can outlive its activation.
  */
 public class Frame {
 
   public Frame(final SObject nilObject, final Frame previousFrame,
-      final Frame context, final SMethod method, final long stackElements) {
+      final Frame context, final SMethod method, final SAbstractObject[] stack,
+      final int base) {
+    initialize(nilObject, previousFrame, context, method, stack, base);
+  }
+
+  /**
+   * (Re)initialize the frame for a new activation. Frames that were not
+   * materialized can not be referenced anymore once they are popped, and are
+   * reused by the interpreter.
+   */
+  void initialize(final SObject nilObject, final Frame previousFrame,
+      final Frame context, final SMethod method, final SAbstractObject[] stack,
+      final int base) {
+    assert !materialized;
     this.previousFrame = previousFrame;
     this.context = context;
+    this.outerContext = context == null ? this : context.outerContext;
     this.method = method;
-    this.stack = new SAbstractObject[(int) stackElements];
-
-    for (int i = 0; i < stackElements; i++) {
-      stack[i] = nilObject;
-    }
+    this.stack = stack;
+    this.base = base;
+    this.valueStackOffset = base;
 
     // Reset the stack pointer and the bytecode index
     resetStackPointer();
     bytecodeIndex = 0;
+
+    // the stack is written before it is read, only locals need to be nil
+    for (int i = localOffset; i <= stackPointer; i++) {
+      stack[i] = nilObject;
+    }
+  }
+
+  public static int getFrameSize(final SMethod method) {
+    // Compute the maximum number of stack locations (including arguments,
+    // locals and extra buffer to support doesNotUnderstand)
+    return method.getNumberOfArguments()
+        + method.getNumberOfLocals()
+        + method.getMaximumNumberOfStackElements() + 2;
+  }
+
+  public boolean isMaterialized() {
+    return materialized;
+  }
+
+  /**
+   * Move this frame from the shared value stack into an array of its own.
+   */
+  public void materialize() {
+    if (materialized) {
+      return;
+    }
+
+    SAbstractObject[] ownStack = new SAbstractObject[getFrameSize(method)];
+    System.arraycopy(stack, base, ownStack, 0, stackPointer - base + 1);
+
+    stackPointer -= base;
+    localOffset -= base;
+    base = 0;
+    stack = ownStack;
+    materialized = true;
+  }
+
+  void replaceStack(final SAbstractObject[] oldStack, final SAbstractObject[] newStack) {
+    // the shared value stack was grown, frames on it need to use the new one
+    if (stack == oldStack) {
+      stack = newStack;
+    }
   }
 
   public Frame getPreviousFrame() {
@@ -104,16 +163,15 @@ public class Frame {
   }
 
   public Frame getOuterContext() {
-    // Compute the outer context of this frame
-    Frame frame = this;
-
-    // Iterate through the context chain until null is reached
-    while (frame.hasContext()) {
-      frame = frame.getContext();
-    }
+    return outerContext;
+  }
 
-    // Return the outer context
-    return frame;
+  /**
+   * @return the receiver of the method, which is the first argument of the
+   *         outer context
+   */
+  public SAbstractObject getSelf() {
+    return outerContext.stack[outerContext.base];
   }
 
   public SMethod getMethod() {
@@ -136,7 +194,7 @@ public class Frame {
 
   public void resetStackPointer() {
     // arguments are stored in front of local variables
-    localOffset = getMethod().getNumberOfArguments();
+    localOffset = base + getMethod().getNumberOfArguments();
 
     // Set the stack pointer to its initial value thereby clearing the stack
     stackPointer = localOffset + getMethod().getNumberOfLocals() - 1;
@@ -152,6 +210,30 @@ public class Frame {
     bytecodeIndex = value;
   }
 
+  SAbstractObject[] getStack() {
+    return stack;
+  }
+
+  int getValueStackOffset() {
+    return valueStackOffset;
+  }
+
+  int getArgumentOffset() {
+    return base;
+  }
+
+  int getLocalOffset() {
+    return localOffset;
+  }
+
+  int getStackPointer() {
+    return stackPointer;
+  }
+
+  void setStackPointer(final int value) {
+    stackPointer = value;
+  }
+
   public SAbstractObject getStackElement(final int index) {
     // Get the stack element with the given index
     // (an index of zero yields the top element)
@@ -164,11 +246,11 @@ public class Frame {
     stack[stackPointer - index] = value;
   }
 
-  private SAbstractObject getLocal(final int index) {
+  SAbstractObject getLocal(final int index) {
     return stack[localOffset + index];
   }
 
-  private void setLocal(final int index, final SAbstractObject value) {
+  void setLocal(final int index, final SAbstractObject value) {
     stack[localOffset + index] = value;
   }
 
@@ -183,12 +265,16 @@ public class Frame {
     getContext(contextLevel).setLocal(index, value);
   }
 
+  SAbstractObject getArgument(final int index) {
+    return stack[base + index];
+  }
+
   public SAbstractObject getArgument(final int index, final int contextLevel) {
     // Get the context
     Frame context = getContext(contextLevel);
 
     // Get the argument with the given index
-    return context.stack[index];
+    return context.stack[context.base + index];
   }
 
   public void setArgument(final int index, final int contextLevel,
@@ -197,7 +283,7 @@ public class Frame {
     Frame context = getContext(contextLevel);
 
     // Set the argument with the given index to the given value
-    context.stack[index] = value;
+    context.stack[context.base + index] = value;
   }
 
   public void copyArgumentsFrom(final Frame frame) {
@@ -206,7 +292,7 @@ public class Frame {
     // - copy them into the argument area of the current frame
     int numArgs = getMethod().getNumberOfArguments();
     for (int i = 0; i < numArgs; ++i) {
-      stack[i] = frame.getStackElement(numArgs - 1 - i);
+      stack[base + i] = frame.getStackElement(numArgs - 1 - i);
     }
   }
 
@@ -225,11 +311,18 @@ public class Frame {
   private int stackPointer;
   private int bytecodeIndex;
 
-  // the offset at which local variables start
+  // the offset at which arguments and local variables start
+  private int base;
   private int localOffset;
 
-  private final SMethod           method;
-  private final Frame             context;
-  private Frame                   previousFrame;
-  private final SAbstractObject[] stack;
+  // the offset of the frame on the shared value stack, where its space stays
+  // reserved after it is materialized, until it is popped
+  private int valueStackOffset;
+
+  private SMethod           method;
+  private Frame             context;
+  private Frame             outerContext;
+  private Frame             previousFrame;
+  private SAbstractObject[] stack;
+  private boolean           materialized;
 }
@@ -0,0 +1,130 @@
+package som.interpreter;
+
+import som.vm.Universe;
+import som.vmobjects.LookupCache;
+import som.vmobjects.SClass;
+import som.vmobjects.SInvokable;
+import som.vmobjects.SMethod;
+import som.vmobjects.SSymbol;
+
+
+/**
+ * A polymorphic inline cache of a send site. It remembers the invokables for
+ * up to a fixed number of receiver classes. A site that sees more classes
+ * becomes megamorphic, and classes that are not cached are looked up in the
+ * class hierarchy each time.
+ */
+public final class InlineCache {
+
+  public static final int DEFAULT_DEGREE = 4;
+
+  private final SMethod method;
+  private final int     bytecodeIndex;
+
+  private final SClass[]     classes;
+  private final SInvokable[] invokables;
+  private int                size;
+  private boolean            megamorphic;
+
+  // version of the global lookup cache when the entries were cached
+  private int version;
+
+  public InlineCache(final SMethod method, final int bytecodeIndex, final int degree,
+      final int version) {
+    this.method = method;
+    this.bytecodeIndex = bytecodeIndex;
+    this.classes = new SClass[degree];
+    this.invokables = new SInvokable[degree];
+    this.version = version;
+  }
+
+  /**
+   * Lookup the invokable for the receiver class. If classes changed since
+   * the entries were cached, as indicated by the version of the global
+   * lookup cache, the entries are dropped first.
+   */
+  public SInvokable lookup(final SClass receiverClass, final SSymbol selector,
+      final LookupCache lookupCache) {
+    if (version != lookupCache.getVersion()) {
+      invalidate(lookupCache.getVersion());
+    }
+
+    for (int i = 0; i < size; i++) {
+      if (classes[i] == receiverClass) {
+        return invokables[i];
+      }
+    }
+
+    // the invokable might be null, which is cached as well and results in
+    // doesNotUnderstand:arguments: being sent
+    SInvokable invokable = receiverClass.lookupInvokable(selector);
+    if (size < classes.length) {
+      classes[size] = receiverClass;
+      invokables[size] = invokable;
+      size += 1;
+    } else {
+      megamorphic = true;
+    }
+    return invokable;
+  }
+
+  /**
+   * @return whether the entries are still valid, i.e., were cached for the
+   *         current version of the lookup cache
+   */
+  public boolean isValid(final LookupCache lookupCache) {
+    return version == lookupCache.getVersion();
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public boolean isMegamorphic() {
+    return megamorphic;
+  }
+
+  public SClass getReceiverClass(final int index) {
+    return classes[index];
+  }
+
+  public SInvokable getInvokable(final int index) {
+    return invokables[index];
+  }
+
+  private void invalidate(final int newVersion) {
+    for (int i = 0; i < size; i++) {
+      classes[i] = null;
+      invokables[i] = null;
+    }
+    size = 0;
+    megamorphic = false;
+    version = newVersion;
+  }
+
+  public String getState() {
+    if (megamorphic) {
+      return "megamorphic";
+    } else if (size == 1) {
+      return "monomorphic";
+    } else if (size > 1) {
+      return "polymorphic";
+    } else {
+      return "uninitialized";
+    }
+  }
+
+  public void printStatistics() {
+    String className = method.getHolder().getName().getEmbeddedString();
+    String methodName = method.getSignature().getEmbeddedString();
+    String selector = ((SSymbol) method.getConstant(bytecodeIndex)).getEmbeddedString();
+
+    StringBuilder cachedClasses = new StringBuilder();
+    for (int i = 0; i < size; i++) {
+      cachedClasses.append(' ').append(classes[i].getName().getEmbeddedString());
+    }
+
+    Universe.errorPrintln(className + ">>#" + methodName + " @bi: " + bytecodeIndex
+        + " #" + selector + " " + getState() + ":" + cachedClasses);
+  }
+}
@@ -25,84 +25,187 @@
 
 package som.interpreter;
 
+import static som.interpreter.Bytecodes.ADD_TO_LOCAL;
 import static som.interpreter.Bytecodes.DUP;
 import static som.interpreter.Bytecodes.HALT;
+import static som.interpreter.Bytecodes.JUMP;
+import static som.interpreter.Bytecodes.JUMP_BACKWARD;
+import static som.interpreter.Bytecodes.JUMP_IF_FALSE;
+import static som.interpreter.Bytecodes.JUMP_IF_GREATER;
+import static som.interpreter.Bytecodes.JUMP_IF_LESS;
+import static som.interpreter.Bytecodes.JUMP_IF_NOT_INT;
+import static som.interpreter.Bytecodes.JUMP_IF_TRUE;
 import static som.interpreter.Bytecodes.POP;
+import static som.interpreter.Bytecodes.POP_ADD_TO_LOCAL;
 import static som.interpreter.Bytecodes.POP_ARGUMENT;
 import static som.interpreter.Bytecodes.POP_FIELD;
 import static som.interpreter.Bytecodes.POP_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_0;
+import static som.interpreter.Bytecodes.PUSH_1;
 import static som.interpreter.Bytecodes.PUSH_ARGUMENT;
+import static som.interpreter.Bytecodes.PUSH_ARGUMENT_1;
+import static som.interpreter.Bytecodes.PUSH_ARGUMENT_2;
 import static som.interpreter.Bytecodes.PUSH_BLOCK;
 import static som.interpreter.Bytecodes.PUSH_CONSTANT;
 import static som.interpreter.Bytecodes.PUSH_FIELD;
 import static som.interpreter.Bytecodes.PUSH_GLOBAL;
 import static som.interpreter.Bytecodes.PUSH_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_0;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_1;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_2;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_CONST;
+import static som.interpreter.Bytecodes.PUSH_LOCAL_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_NIL;
+import static som.interpreter.Bytecodes.PUSH_OUTER_ARG;
+import static som.interpreter.Bytecodes.PUSH_OUTER_LOCAL;
+import static som.interpreter.Bytecodes.PUSH_SELF;
+import static som.interpreter.Bytecodes.RETURN_FIELD;
 import static som.interpreter.Bytecodes.RETURN_LOCAL;
 import static som.interpreter.Bytecodes.RETURN_NON_LOCAL;
+import static som.interpreter.Bytecodes.RETURN_SELF;
 import static som.interpreter.Bytecodes.SEND;
+import static som.interpreter.Bytecodes.SEND_INT_ADD;
+import static som.interpreter.Bytecodes.SEND_INT_EQUAL;
+import static som.interpreter.Bytecodes.SEND_INT_LESS;
+import static som.interpreter.Bytecodes.SEND_INT_MUL;
+import static som.interpreter.Bytecodes.SEND_INT_SUB;
+import static som.interpreter.Bytecodes.STORE_FIELD;
+import static som.interpreter.Bytecodes.STORE_LOCAL;
+import static som.interpreter.Bytecodes.STORE_LOCAL_0;
+import static som.interpreter.Bytecodes.STORE_LOCAL_1;
+import static som.interpreter.Bytecodes.STORE_LOCAL_2;
+import static som.interpreter.Bytecodes.STORE_OUTER_LOC;
 import static som.interpreter.Bytecodes.SUPER_SEND;
 import static som.interpreter.Bytecodes.getBytecodeLength;
+import static som.interpreter.Bytecodes.getJumpOffset;
+import static som.interpreter.Bytecodes.isPushArgument;
+import static som.interpreter.Bytecodes.isPushLocal;
+import static som.interpreter.Bytecodes.isQuickenedSend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import som.compiler.ProgramDefinitionError;
 import som.vm.Universe;
 import som.vmobjects.SAbstractObject;
 import som.vmobjects.SBlock;
 import som.vmobjects.SClass;
+import som.vmobjects.SDouble;
+import som.vmobjects.SInteger;
 import som.vmobjects.SInvokable;
 import som.vmobjects.SMethod;
 import som.vmobjects.SObject;
+import som.vmobjects.SPrimitive;
 import som.vmobjects.SSymbol;
 
 
 public class Interpreter {
 
-  private final Universe universe;
-
-  public Interpreter(final Universe universe) {
-    this.universe = universe;
-  }
+  private static final int INITIAL_STACK_SIZE = 64 * 1024;
 
-  private void doDup() {
-    // Handle the DUP bytecode
-    getFrame().push(getFrame().getStackElement(0));
-  }
-
-  private void doPushLocal(final int bytecodeIndex) {
-    // Handle the PUSH LOCAL bytecode
-    getFrame().push(
-        getFrame().getLocal(getMethod().getBytecode(bytecodeIndex + 1),
-            getMethod().getBytecode(bytecodeIndex + 2)));
-  }
-
-  private void doPushArgument(final int bytecodeIndex) {
-    // Handle the PUSH ARGUMENT bytecode
-    getFrame().push(
-        getFrame().getArgument(getMethod().getBytecode(bytecodeIndex + 1),
-            getMethod().getBytecode(bytecodeIndex + 2)));
-  }
+  public static final int DEFAULT_COMPILATION_THRESHOLD = 1000;
+  public static final int DEFAULT_OSR_THRESHOLD         = 10000;
 
-  private void doPushField(final int bytecodeIndex) {
-    // Handle the PUSH FIELD bytecode
-    int fieldIndex = getMethod().getBytecode(bytecodeIndex + 1);
+  // the arithmetic operations that are evaluated on unboxed doubles, and,
+  // in part, by quickened sends on integers and compiled code
+  private static final byte NO_OPERATION = 0;
+  static final byte         ADD          = 1;
+  static final byte         SUBTRACT     = 2;
+  static final byte         MULTIPLY     = 3;
+  private static final byte DIVIDE       = 4;
+  private static final byte MODULO       = 5;
+  static final byte         LESS_THAN    = 6;
+  static final byte         EQUAL        = 7;
 
-    // Push the field with the computed index onto the stack
-    getFrame().push(((SObject) getSelf()).getField(fieldIndex));
-  }
+  private final Universe universe;
 
-  private void doPushBlock(final int bytecodeIndex) throws ProgramDefinitionError {
-    // Handle the PUSH BLOCK bytecode
-    SMethod blockMethod = (SMethod) getMethod().getConstant(bytecodeIndex);
+  // the value stack shared by the frames of all activations, and the index
+  // of its first free element
+  private SAbstractObject[] valueStack = new SAbstractObject[INITIAL_STACK_SIZE];
+  private int               stackTop;
+
+  // all inline caches, only recorded when statistics are enabled
+  private List<InlineCache> inlineCaches;
+
+  // the number of sends, and of those that executed a trivial method
+  // directly, only counted when enabled, before the execution starts, and
+  // printed on exit
+  private long    numberOfSends;
+  private long    numberOfTrivialSends;
+  private boolean countingSends;
+
+  // counts of executed bytecode sequences, only recorded when enabled
+  private BytecodeProfile bytecodeProfile;
+
+  // popped frames that were not materialized, available for reuse
+  private Frame[] unusedFrames = new Frame[64];
+  private int     numUnusedFrames;
+
+  // the active frames that are materialized, in the order of the frame
+  // stack. Only they can be the context of a block, and need to be marked
+  // as popped when a non-local return unwinds them.
+  private Frame[] materializedFrames = new Frame[16];
+  private int     numMaterializedFrames;
+
+  // the materialized frames below this index belong to activations of the
+  // interpreter further down the Java stack, which called compiled code
+  // that called this one. A non-local return to them needs to unwind the
+  // compiled code first.
+  private int materializedBase;
+
+  // compiles methods when the tiering policy decides so, which is the
+  // threshold policy unless another one is set
+  private final JitRuntime             runtime;
+  private final BaselineCompiler       compiler;
+  private final Deoptimizer            deoptimizer;
+  private final ThresholdTieringPolicy thresholdPolicy;
+  private TieringPolicy                tieringPolicy;
+
+  // the methods that the interpreter invoked, only recorded when the report
+  // of their tiers is enabled
+  private List<SMethod> invokedMethods;
+
+  // the number of activations that continued in compiled code at the header
+  // of a loop, and the methods whose loops did, are only recorded when
+  // statistics are enabled
+  private long          numberOfLoopEntries;
+  private List<SMethod> loopingMethods;
+
+  // the methods of the frames on which compiled code sends messages, by
+  // number of arguments
+  private SMethod[] entryMethods = new SMethod[4];
+
+  // the selectors of the arithmetic operations, in the order of their codes
+  private final SSymbol[] operationSelectors;
+
+  // the operands of the evaluation of double operations, and its result
+  private final double[]  doubleOperands = new double[8];
+  private SAbstractObject doubleResult;
+
+  // whether the arithmetic operations reach the primitives of Double and
+  // Integer, for the version of the lookup cache they were checked for
+  private final boolean[] doublePrimitiveOperations;
+  private final boolean[] integerPrimitiveOperations;
+  private int             primitiveOperationsVersion = -1;
 
-    // Push a new block with the current getFrame() as context onto the
-    // stack
-    getFrame().push(
-        universe.newBlock(blockMethod, getFrame(),
-            blockMethod.getNumberOfArguments()));
-  }
-
-  private void doPushConstant(final int bytecodeIndex) {
-    // Handle the PUSH CONSTANT bytecode
-    getFrame().push(getMethod().getConstant(bytecodeIndex));
+  public Interpreter(final Universe universe) {
+    this.universe = universe;
+    this.operationSelectors = new SSymbol[] {null, universe.symbolFor("+"),
+        universe.symbolFor("-"), universe.symbolFor("*"), universe.symbolFor("//"),
+        universe.symbolFor("%"), universe.symbolFor("<"), universe.symbolFor("=")};
+    this.doublePrimitiveOperations = new boolean[operationSelectors.length];
+    this.integerPrimitiveOperations = new boolean[operationSelectors.length];
+    this.deoptimizer = new Deoptimizer();
+    this.runtime = new JitRuntime(universe, this, deoptimizer);
+    this.compiler = new BaselineCompiler(universe, runtime, deoptimizer);
+
+    this.thresholdPolicy = new ThresholdTieringPolicy(true, DEFAULT_COMPILATION_THRESHOLD,
+        Integer.getInteger("som.osrThreshold", DEFAULT_OSR_THRESHOLD));
+    this.tieringPolicy = thresholdPolicy;
+    if (Boolean.getBoolean("som.printOsrStatistics")) {
+      loopingMethods = new ArrayList<>();
+    }
   }
 
   private void doPushGlobal(final int bytecodeIndex) {
@@ -121,41 +224,18 @@ public class Interpreter {
     }
   }
 
-  private void doPop() {
-    // Handle the POP bytecode
-    getFrame().pop();
-  }
-
-  private void doPopLocal(final int bytecodeIndex) {
-    // Handle the POP LOCAL bytecode
-    getFrame().setLocal(getMethod().getBytecode(bytecodeIndex + 1),
-        getMethod().getBytecode(bytecodeIndex + 2), getFrame().pop());
-  }
-
-  private void doPopArgument(final int bytecodeIndex) {
-    // Handle the POP ARGUMENT bytecode
-    getFrame().setArgument(getMethod().getBytecode(bytecodeIndex + 1),
-        getMethod().getBytecode(bytecodeIndex + 2), getFrame().pop());
-  }
-
-  private void doPopField(final int bytecodeIndex) {
-    // Handle the POP FIELD bytecode
-    int fieldIndex = getMethod().getBytecode(bytecodeIndex + 1);
-
-    // Set the field with the computed index to the value popped from the stack
-    ((SObject) getSelf()).setField(fieldIndex, getFrame().pop());
-  }
-
-  private void doSuperSend(final int bytecodeIndex) {
+  private void doSuperSend(final int bytecodeIndex) throws ProgramDefinitionError {
     // Handle the SUPER SEND bytecode
     SSymbol signature = (SSymbol) getMethod().getConstant(bytecodeIndex);
 
     // Send the message
-    // Lookup the invokable with the given signature
+    // Lookup the invokable with the given signature, the target of a super
+    // send only depends on the holder, and a single cache entry suffices
     SClass holderSuper = (SClass) getMethod().getHolder().getSuperClass();
-    SInvokable invokable = holderSuper.lookupInvokable(signature);
+    InlineCache cache = getInlineCache(bytecodeIndex, 1);
+    SInvokable invokable = cache.lookup(holderSuper, signature, universe.getLookupCache());
 
-    activateOrDnu(signature, invokable);
+    activate(signature, invokable);
   }
 
   private void doReturnLocal() {
@@ -180,8 +260,7 @@ public class Interpreter {
       // the "sender" will be the surrounding block and not the object
       // that actually sent the 'value' message.
       SBlock block = (SBlock) getFrame().getArgument(0, 0);
-      SAbstractObject sender =
-          getFrame().getPreviousFrame().getOuterContext().getArgument(0, 0);
+      SAbstractObject sender = getFrame().getPreviousFrame().getSelf();
 
       // pop the frame of the currently executing block...
       popFrame();
@@ -198,16 +277,44 @@ public class Interpreter {
       return;
     }
 
-    // Unwind the frames
-    while (getFrame() != context) {
-      popFrame();
+    returnNonLocal(context, result);
+  }
+
+  /**
+   * Return from the given context, which is still active, with the result.
+   * If the context is below compiled code on the Java stack, the compiled
+   * code is unwound first, and the return continues below it.
+   */
+  private void returnNonLocal(final Frame context, final SAbstractObject result) {
+    int index = numMaterializedFrames - 1;
+    while (index >= materializedBase && materializedFrames[index] != context) {
+      index -= 1;
+    }
+    if (index < materializedBase) {
+      throw new NonLocalReturn(context, result);
     }
 
-    // Pop the top frame and push the result
+    // Unwind the frames. Frames that are not materialized are not
+    // referenced by any block, and are dropped together with their space on
+    // the value stack. The materialized ones are marked as popped, so that
+    // the blocks they are the context of can detect that they escaped.
+    unwindMaterializedFrames(index + 1);
+    frame = context;
+    stackTop = context.getValueStackOffset() + Frame.getFrameSize(context.getMethod());
+
+    // Pop the home frame and push the result
     popFrameAndPushResult(result);
   }
 
-  private void doSend(final int bytecodeIndex) {
+  private void unwindMaterializedFrames(final int newNumMaterializedFrames) {
+    while (numMaterializedFrames > newNumMaterializedFrames) {
+      numMaterializedFrames -= 1;
+      materializedFrames[numMaterializedFrames].clearPreviousFrame();
+      materializedFrames[numMaterializedFrames] = null;
+    }
+  }
+
+  private void doSend(final int bytecodeIndex) throws ProgramDefinitionError {
     // Handle the SEND bytecode
     SSymbol signature = (SSymbol) getMethod().getConstant(bytecodeIndex);
 
@@ -222,122 +329,831 @@ public class Interpreter {
   }
 
   public SAbstractObject start() throws ProgramDefinitionError {
-    // Iterate through the bytecodes
-    while (true) {
+    final SObject trueObject = universe.trueObject;
+    final SObject falseObject = universe.falseObject;
+    final SObject nilObject = universe.nilObject;
+    final SInteger zero = SInteger.getInteger(0);
+    final SInteger one = SInteger.getInteger(1);
+
+    frameLoop: while (true) {
+      // Cache the state of the current frame in locals, so that the JIT can
+      // keep it in registers. The stack pointer and bytecode index are written
+      // back before anything that may look at the frame, i.e., sends and
+      // returns, and everything is reloaded afterwards from the new frame.
+      final Frame frame = this.frame;
+      final SMethod method = frame.getMethod();
+      final byte[] bytecodes = method.getBytecodes();
+      final SAbstractObject[] stack = frame.getStack();
+      final int argumentOffset = frame.getArgumentOffset();
+      final int localOffset = frame.getLocalOffset();
+      final SAbstractObject receiver = frame.getSelf();
+
+      int sp = frame.getStackPointer();
+      int bytecodeIndex = frame.getBytecodeIndex();
+
+      while (true) {
+        if (bytecodeProfile != null) {
+          bytecodeProfile.record(bytecodes, bytecodeIndex);
+        }
+
+        switch (bytecodes[bytecodeIndex]) {
+
+          case HALT: {
+            // Handle the HALT bytecode
+            frame.setStackPointer(sp);
+            frame.setBytecodeIndex(bytecodeIndex + 1);
+            return stack[sp];
+          }
+
+          case DUP: {
+            SAbstractObject top = stack[sp];
+            sp += 1;
+            stack[sp] = top;
+            bytecodeIndex += 1;
+            break;
+          }
 
-      // Get the current bytecode index
-      int bytecodeIndex = getFrame().getBytecodeIndex();
+          case PUSH_LOCAL: {
+            sp += 1;
+            stack[sp] = frame.getLocal(bytecodes[bytecodeIndex + 1],
+                bytecodes[bytecodeIndex + 2]);
+            bytecodeIndex += 3;
+            break;
+          }
 
-      // Get the current bytecode
-      byte bytecode = getMethod().getBytecode(bytecodeIndex);
+          case PUSH_ARGUMENT: {
+            sp += 1;
+            stack[sp] = frame.getArgument(bytecodes[bytecodeIndex + 1],
+                bytecodes[bytecodeIndex + 2]);
+            bytecodeIndex += 3;
+            break;
+          }
 
-      // Get the length of the current bytecode
-      int bytecodeLength = getBytecodeLength(bytecode);
+          case PUSH_FIELD: {
+            SObject self = (SObject) receiver;
+            if (self.isDoubleField(bytecodes[bytecodeIndex + 1])) {
+              int next = evaluateDoubles(frame, method, bytecodes, 0, 0, bytecodeIndex);
+              if (next != -1) {
+                sp += 1;
+                stack[sp] = doubleResult;
+                bytecodeIndex = next;
+                break;
+              }
+            }
+            sp += 1;
+            stack[sp] = self.getField(bytecodes[bytecodeIndex + 1]);
+            bytecodeIndex += 2;
+            break;
+          }
 
-      // Compute the next bytecode index
-      int nextBytecodeIndex = bytecodeIndex + bytecodeLength;
+          case PUSH_BLOCK: {
+            SMethod blockMethod = (SMethod) method.getConstant(bytecodeIndex);
+            if (!blockMethod.usesContext()) {
+              // the block does not access the frames it is nested in,
+              // and does not need to capture the current frame
+              sp += 1;
+              stack[sp] = universe.newBlock(blockMethod, null,
+                  blockMethod.getNumberOfArguments());
+              bytecodeIndex += 2;
+              break;
+            }
+
+            if (!frame.isMaterialized()) {
+              // the block captures the frame, which needs to move off the
+              // shared value stack, and then continues on its own stack
+              frame.setStackPointer(sp);
+              frame.setBytecodeIndex(bytecodeIndex);
+              materialize(frame);
+              continue frameLoop;
+            }
+
+            sp += 1;
+            stack[sp] = universe.newBlock(blockMethod, frame,
+                blockMethod.getNumberOfArguments());
+            bytecodeIndex += 2;
+            break;
+          }
 
-      // Update the bytecode index of the frame
-      getFrame().setBytecodeIndex(nextBytecodeIndex);
+          case PUSH_CONSTANT: {
+            sp += 1;
+            stack[sp] = method.getConstant(bytecodeIndex);
+            bytecodeIndex += 2;
+            break;
+          }
 
-      // Handle the current bytecode
-      switch (bytecode) {
+          case PUSH_GLOBAL: {
+            SAbstractObject global =
+                universe.getGlobal((SSymbol) method.getConstant(bytecodeIndex));
+            if (global != null) {
+              sp += 1;
+              stack[sp] = global;
+              bytecodeIndex += 2;
+              break;
+            }
+
+            // the global is unknown, and we need to send #unknownGlobal:
+            frame.setStackPointer(sp);
+            frame.setBytecodeIndex(bytecodeIndex + 2);
+            doPushGlobal(bytecodeIndex);
+            continue frameLoop;
+          }
 
-        case HALT: {
-          // Handle the HALT bytecode
-          return getFrame().getStackElement(0);
-        }
+          case PUSH_0: {
+            sp += 1;
+            stack[sp] = zero;
+            bytecodeIndex += 1;
+            break;
+          }
 
-        case DUP: {
-          doDup();
-          break;
-        }
+          case PUSH_1: {
+            sp += 1;
+            stack[sp] = one;
+            bytecodeIndex += 1;
+            break;
+          }
 
-        case PUSH_LOCAL: {
-          doPushLocal(bytecodeIndex);
-          break;
-        }
+          case PUSH_NIL: {
+            sp += 1;
+            stack[sp] = nilObject;
+            bytecodeIndex += 1;
+            break;
+          }
 
-        case PUSH_ARGUMENT: {
-          doPushArgument(bytecodeIndex);
-          break;
-        }
+          case PUSH_SELF: {
+            sp += 1;
+            stack[sp] = receiver;
+            bytecodeIndex += 1;
+            break;
+          }
 
-        case PUSH_FIELD: {
-          doPushField(bytecodeIndex);
-          break;
-        }
+          case POP: {
+            sp -= 1;
+            bytecodeIndex += 1;
+            break;
+          }
 
-        case PUSH_BLOCK: {
-          doPushBlock(bytecodeIndex);
-          break;
-        }
+          case JUMP: {
+            bytecodeIndex += getJumpOffset(bytecodes[bytecodeIndex + 1],
+                bytecodes[bytecodeIndex + 2]);
+            break;
+          }
 
-        case PUSH_CONSTANT: {
-          doPushConstant(bytecodeIndex);
-          break;
-        }
+          case JUMP_BACKWARD: {
+            bytecodeIndex -= getJumpOffset(bytecodes[bytecodeIndex + 1],
+                bytecodes[bytecodeIndex + 2]);
+            method.incrementBackEdgeCount(bytecodeIndex);
+            if (tieringPolicy.shouldCompileLoop(method, bytecodeIndex)) {
+              frame.setStackPointer(sp);
+              frame.setBytecodeIndex(bytecodeIndex);
+              if (enterCompiledLoop(frame)) {
+                continue frameLoop;
+              }
+            }
+            break;
+          }
 
-        case PUSH_GLOBAL: {
-          doPushGlobal(bytecodeIndex);
-          break;
-        }
+          case JUMP_IF_TRUE: {
+            SAbstractObject condition = stack[sp];
+            if (condition == trueObject) {
+              sp -= 1;
+              bytecodeIndex += getJumpOffset(bytecodes[bytecodeIndex + 1],
+                  bytecodes[bytecodeIndex + 2]);
+            } else if (condition == falseObject) {
+              sp -= 1;
+              bytecodeIndex += 5;
+            } else {
+              // not a boolean, continue with the send of the original message
+              bytecodeIndex += getJumpOffset(bytecodes[bytecodeIndex + 3],
+                  bytecodes[bytecodeIndex + 4]);
+            }
+            break;
+          }
 
-        case POP: {
-          doPop();
-          break;
-        }
+          case JUMP_IF_NOT_INT: {
+            boolean allIntegers = true;
+            for (int i = 0; i < bytecodes[bytecodeIndex + 1]; i++) {
+              allIntegers &= stack[sp - i] instanceof SInteger;
+            }
+            if (allIntegers) {
+              bytecodeIndex += 4;
+            } else {
+              // continue with the send of the original message
+              bytecodeIndex += getJumpOffset(bytecodes[bytecodeIndex + 2],
+                  bytecodes[bytecodeIndex + 3]);
+            }
+            break;
+          }
 
-        case POP_LOCAL: {
-          doPopLocal(bytecodeIndex);
-          break;
-        }
+          case JUMP_IF_GREATER:
+          case JUMP_IF_LESS: {
+            SAbstractObject counter = frame.getLocal(bytecodes[bytecodeIndex + 1], 0);
+            SInteger limit = (SInteger) frame.getLocal(bytecodes[bytecodeIndex + 2], 0);
+
+            // a counter that is not an SInteger anymore has overflowed,
+            // and is beyond any limit
+            boolean beyondLimit;
+            if (counter instanceof SInteger) {
+              long value = ((SInteger) counter).getEmbeddedInteger();
+              if (bytecodes[bytecodeIndex] == JUMP_IF_GREATER) {
+                beyondLimit = value > limit.getEmbeddedInteger();
+              } else {
+                beyondLimit = value < limit.getEmbeddedInteger();
+              }
+            } else {
+              beyondLimit = true;
+            }
+
+            if (beyondLimit) {
+              bytecodeIndex += getJumpOffset(bytecodes[bytecodeIndex + 3],
+                  bytecodes[bytecodeIndex + 4]);
+            } else {
+              bytecodeIndex += 5;
+            }
+            break;
+          }
 
-        case POP_ARGUMENT: {
-          doPopArgument(bytecodeIndex);
-          break;
+          case ADD_TO_LOCAL: {
+            SInteger counter = (SInteger) frame.getLocal(bytecodes[bytecodeIndex + 1], 0);
+            SInteger step = (SInteger) frame.getLocal(bytecodes[bytecodeIndex + 2], 0);
+            frame.setLocal(bytecodes[bytecodeIndex + 1], 0, counter.primAdd(step, universe));
+            bytecodeIndex += 3;
+            break;
+          }
+
+          case JUMP_IF_FALSE: {
+            SAbstractObject condition = stack[sp];
+            if (condition == falseObject) {
+              sp -= 1;
+              bytecodeIndex += getJumpOffset(bytecodes[bytecodeIndex + 1],
+                  bytecodes[bytecodeIndex + 2]);
+            } else if (condition == trueObject) {
+              sp -= 1;
+              bytecodeIndex += 5;
+            } else {
+              // not a boolean, continue with the send of the original message
+              bytecodeIndex += getJumpOffset(bytecodes[bytecodeIndex + 3],
+                  bytecodes[bytecodeIndex + 4]);
+            }
+            break;
+          }
+
+          case STORE_LOCAL: {
+            frame.setLocal(bytecodes[bytecodeIndex + 2], bytecodes[bytecodeIndex + 3],
+                stack[sp]);
+            sp -= 1;
+            bytecodeIndex += 5;
+            break;
+          }
+
+          case PUSH_LOCAL_0:
+          case PUSH_LOCAL_1:
+          case PUSH_LOCAL_2: {
+            sp += 1;
+            stack[sp] = stack[localOffset + bytecodes[bytecodeIndex] - PUSH_LOCAL_0];
+            bytecodeIndex += 3;
+            break;
+          }
+
+          case PUSH_ARGUMENT_1:
+          case PUSH_ARGUMENT_2: {
+            sp += 1;
+            stack[sp] = stack[argumentOffset + 1 + bytecodes[bytecodeIndex] - PUSH_ARGUMENT_1];
+            bytecodeIndex += 3;
+            break;
+          }
+
+          case PUSH_OUTER_LOCAL: {
+            sp += 1;
+            stack[sp] = frame.getContext().getLocal(bytecodes[bytecodeIndex + 1]);
+            bytecodeIndex += 3;
+            break;
+          }
+
+          case PUSH_OUTER_ARG: {
+            sp += 1;
+            stack[sp] = frame.getContext().getArgument(bytecodes[bytecodeIndex + 1]);
+            bytecodeIndex += 3;
+            break;
+          }
+
+          case STORE_LOCAL_0:
+          case STORE_LOCAL_1:
+          case STORE_LOCAL_2: {
+            stack[localOffset + bytecodes[bytecodeIndex] - STORE_LOCAL_0] = stack[sp];
+            sp -= 1;
+            bytecodeIndex += 5;
+            break;
+          }
+
+          case STORE_OUTER_LOC: {
+            frame.getContext().setLocal(bytecodes[bytecodeIndex + 2], stack[sp]);
+            sp -= 1;
+            bytecodeIndex += 5;
+            break;
+          }
+
+          case STORE_FIELD: {
+            SObject self = (SObject) receiver;
+            self.setField(bytecodes[bytecodeIndex + 2], stack[sp]);
+            sp -= 1;
+            bytecodeIndex += 4;
+            break;
+          }
+
+          case PUSH_LOCAL_CONST: {
+            stack[sp + 1] = frame.getLocal(bytecodes[bytecodeIndex + 1],
+                bytecodes[bytecodeIndex + 2]);
+            stack[sp + 2] = method.getConstant(bytecodeIndex + 3);
+            sp += 2;
+            bytecodeIndex += 5;
+            break;
+          }
+
+          case PUSH_LOCAL_LOCAL: {
+            stack[sp + 1] = frame.getLocal(bytecodes[bytecodeIndex + 1],
+                bytecodes[bytecodeIndex + 2]);
+            stack[sp + 2] = frame.getLocal(bytecodes[bytecodeIndex + 4],
+                bytecodes[bytecodeIndex + 5]);
+            sp += 2;
+            bytecodeIndex += 6;
+            break;
+          }
+
+          case POP_ADD_TO_LOCAL: {
+            sp -= 1;
+            SInteger counter = (SInteger) frame.getLocal(bytecodes[bytecodeIndex + 2], 0);
+            SInteger step = (SInteger) frame.getLocal(bytecodes[bytecodeIndex + 3], 0);
+            frame.setLocal(bytecodes[bytecodeIndex + 2], 0, counter.primAdd(step, universe));
+            bytecodeIndex += 4;
+            break;
+          }
+
+          case POP_LOCAL: {
+            frame.setLocal(bytecodes[bytecodeIndex + 1], bytecodes[bytecodeIndex + 2],
+                stack[sp]);
+            sp -= 1;
+            bytecodeIndex += 3;
+            break;
+          }
+
+          case POP_ARGUMENT: {
+            frame.setArgument(bytecodes[bytecodeIndex + 1], bytecodes[bytecodeIndex + 2],
+                stack[sp]);
+            sp -= 1;
+            bytecodeIndex += 3;
+            break;
+          }
+
+          case POP_FIELD: {
+            SObject self = (SObject) receiver;
+            self.setField(bytecodes[bytecodeIndex + 1], stack[sp]);
+            sp -= 1;
+            bytecodeIndex += 2;
+            break;
+          }
+
+          case SEND: {
+            if (stack[sp] instanceof SDouble || stack[sp - 1] instanceof SDouble) {
+              int next =
+                  doDoubleOperations(frame, method, bytecodes, stack, sp, bytecodeIndex);
+              if (next != -1) {
+                sp -= 1;
+                bytecodeIndex = next;
+                break;
+              }
+            } else if (stack[sp] instanceof SInteger && stack[sp - 1] instanceof SInteger) {
+              byte quickened = getQuickenedSend(method, bytecodeIndex);
+              if (quickened != SEND) {
+                // rewrite the send in place, and execute the quickened form
+                bytecodes[bytecodeIndex] = quickened;
+                break;
+              }
+            }
+
+            frame.setStackPointer(sp);
+            frame.setBytecodeIndex(bytecodeIndex + 2);
+            doSend(bytecodeIndex);
+            continue frameLoop;
+          }
+
+          case SEND_INT_ADD: {
+            if (!isIntegerSend(stack, sp, ADD)) {
+              revertQuickenedSend(bytecodes, bytecodeIndex);
+              break;
+            }
+            long result;
+            try {
+              result = Math.addExact(((SInteger) stack[sp - 1]).getEmbeddedInteger(),
+                  ((SInteger) stack[sp]).getEmbeddedInteger());
+            } catch (ArithmeticException e) {
+              // the send results in a big integer
+              frame.setStackPointer(sp);
+              frame.setBytecodeIndex(bytecodeIndex + 2);
+              doSend(bytecodeIndex);
+              continue frameLoop;
+            }
+            sp -= 1;
+            stack[sp] = universe.newInteger(result);
+            bytecodeIndex += 2;
+            break;
+          }
+
+          case SEND_INT_SUB: {
+            if (!isIntegerSend(stack, sp, SUBTRACT)) {
+              revertQuickenedSend(bytecodes, bytecodeIndex);
+              break;
+            }
+            long result;
+            try {
+              result = Math.subtractExact(((SInteger) stack[sp - 1]).getEmbeddedInteger(),
+                  ((SInteger) stack[sp]).getEmbeddedInteger());
+            } catch (ArithmeticException e) {
+              // the send results in a big integer
+              frame.setStackPointer(sp);
+              frame.setBytecodeIndex(bytecodeIndex + 2);
+              doSend(bytecodeIndex);
+              continue frameLoop;
+            }
+            sp -= 1;
+            stack[sp] = universe.newInteger(result);
+            bytecodeIndex += 2;
+            break;
+          }
+
+          case SEND_INT_MUL: {
+            if (!isIntegerSend(stack, sp, MULTIPLY)) {
+              revertQuickenedSend(bytecodes, bytecodeIndex);
+              break;
+            }
+            long result;
+            try {
+              result = Math.multiplyExact(((SInteger) stack[sp - 1]).getEmbeddedInteger(),
+                  ((SInteger) stack[sp]).getEmbeddedInteger());
+            } catch (ArithmeticException e) {
+              // the send results in a big integer
+              frame.setStackPointer(sp);
+              frame.setBytecodeIndex(bytecodeIndex + 2);
+              doSend(bytecodeIndex);
+              continue frameLoop;
+            }
+            sp -= 1;
+            stack[sp] = universe.newInteger(result);
+            bytecodeIndex += 2;
+            break;
+          }
+
+          case SEND_INT_LESS: {
+            if (!isIntegerSend(stack, sp, LESS_THAN)) {
+              revertQuickenedSend(bytecodes, bytecodeIndex);
+              break;
+            }
+            long left = ((SInteger) stack[sp - 1]).getEmbeddedInteger();
+            long right = ((SInteger) stack[sp]).getEmbeddedInteger();
+            sp -= 1;
+            stack[sp] = left < right ? trueObject : falseObject;
+            bytecodeIndex += 2;
+            break;
+          }
+
+          case SEND_INT_EQUAL: {
+            if (!isIntegerSend(stack, sp, EQUAL)) {
+              revertQuickenedSend(bytecodes, bytecodeIndex);
+              break;
+            }
+            long left = ((SInteger) stack[sp - 1]).getEmbeddedInteger();
+            long right = ((SInteger) stack[sp]).getEmbeddedInteger();
+            sp -= 1;
+            stack[sp] = left == right ? trueObject : falseObject;
+            bytecodeIndex += 2;
+            break;
+          }
+
+          case SUPER_SEND: {
+            frame.setStackPointer(sp);
+            frame.setBytecodeIndex(bytecodeIndex + 2);
+            doSuperSend(bytecodeIndex);
+            continue frameLoop;
+          }
+
+          case RETURN_LOCAL: {
+            frame.setStackPointer(sp);
+            frame.setBytecodeIndex(bytecodeIndex + 1);
+            doReturnLocal();
+            continue frameLoop;
+          }
+
+          case RETURN_NON_LOCAL: {
+            frame.setStackPointer(sp);
+            frame.setBytecodeIndex(bytecodeIndex + 1);
+            doReturnNonLocal();
+            continue frameLoop;
+          }
+
+          case RETURN_SELF: {
+            // only generated for methods, which are their own outer context
+            frame.setStackPointer(sp);
+            frame.setBytecodeIndex(bytecodeIndex + 1);
+            popFrameAndPushResult(frame.getArgument(0, 0));
+            continue frameLoop;
+          }
+
+          case RETURN_FIELD: {
+            SObject self = (SObject) frame.getArgument(0, 0);
+            frame.setStackPointer(sp);
+            frame.setBytecodeIndex(bytecodeIndex + 2);
+            popFrameAndPushResult(self.getField(bytecodes[bytecodeIndex + 1]));
+            continue frameLoop;
+          }
+
+          default:
+            Universe.errorPrintln("Nasty bug in interpreter");
+            bytecodeIndex += getBytecodeLength(bytecodes[bytecodeIndex]);
+            break;
         }
+      }
+    }
+  }
 
-        case POP_FIELD: {
-          doPopField(bytecodeIndex);
+  /**
+   * Evaluate a binary send to a double, or to an integer with a double
+   * argument, directly on the unboxed values, if it would reach the
+   * arithmetic primitives anyway. The pushes of locals, arguments, and
+   * constants and the arithmetic sends that follow are fused into the same
+   * evaluation, as long as they compute a single value on unboxed doubles,
+   * so that the intermediate results of an expression such as
+   * (x * x) - (y * y) + 0.5 are not boxed. Fields that hold unboxed doubles
+   * are read without boxing them, and the evaluation also starts at the
+   * push of such a field.
+   *
+   * @return the index of the next bytecode, or -1 if the send needs to be
+   *         done normally
+   */
+  private int doDoubleOperations(final Frame frame, final SMethod method,
+      final byte[] bytecodes, final SAbstractObject[] stack, final int sp,
+      final int bytecodeIndex) {
+    SAbstractObject receiver = stack[sp - 1];
+    SAbstractObject argument = stack[sp];
+    if (!isDoubleOperand(receiver) || !isDoubleOperand(argument)) {
+      return -1;
+    }
+
+    doubleOperands[0] = getDoubleValue(receiver);
+    doubleOperands[1] = getDoubleValue(argument);
+    int integers =
+        (receiver instanceof SInteger ? 1 : 0) | (argument instanceof SInteger ? 2 : 0);
+    int next = evaluateDoubles(frame, method, bytecodes, 2, integers, bytecodeIndex);
+    if (next != -1) {
+      stack[sp - 1] = doubleResult;
+    }
+    return next;
+  }
+
+  /**
+   * Evaluate the bytecodes from the given index on the unboxed operands,
+   * which has the given depth, and a bit set in integers for each operand
+   * that is an integer. The value of the evaluation is left in doubleResult.
+   *
+   * @return the index of the next bytecode, or -1 if no operation was done
+   */
+  private int evaluateDoubles(final Frame frame, final SMethod method, final byte[] bytecodes,
+      final int initialDepth, final int initialIntegers, final int bytecodeIndex) {
+    final double[] values = doubleOperands;
+    int integers = initialIntegers;
+    int depth = initialDepth;
+    int index = bytecodeIndex;
+
+    // the last state in which the evaluation computed a single value
+    int resultIndex = -1;
+    double result = 0.0;
+
+    while (true) {
+      byte bytecode = bytecodes[index];
+      if (bytecode == SEND || isQuickenedSend(bytecode)) {
+        byte operation = getOperation((SSymbol) method.getConstant(index));
+        if (operation == NO_OPERATION || depth < 2) {
           break;
         }
 
-        case SEND: {
-          doSend(bytecodeIndex);
+        // operations on integers are left to their primitives
+        boolean integerReceiver = (integers & (1 << (depth - 2))) != 0;
+        boolean integerArgument = (integers & (1 << (depth - 1))) != 0;
+        if (integerReceiver && (integerArgument || operation == MODULO)
+            || !reachesPrimitive(operation, integerReceiver)) {
           break;
         }
 
-        case SUPER_SEND: {
-          doSuperSend(bytecodeIndex);
-          break;
+        double left = values[depth - 2];
+        double right = values[depth - 1];
+        depth -= 1;
+        index += 2;
+        integers &= (1 << (depth - 1)) - 1;
+
+        if (operation == LESS_THAN || operation == EQUAL) {
+          // comparisons end the evaluation with a boolean
+          if (depth > 1) {
+            break;
+          }
+          boolean isTrue = operation == LESS_THAN ? left < right : left == right;
+          doubleResult = isTrue ? universe.trueObject : universe.falseObject;
+          return index;
         }
 
-        case RETURN_LOCAL: {
-          doReturnLocal();
-          break;
+        values[depth - 1] = applyDoubleOperation(operation, left, right);
+        if (depth == 1) {
+          resultIndex = index;
+          result = values[0];
         }
+        continue;
+      }
 
-        case RETURN_NON_LOCAL: {
-          doReturnNonLocal();
-          break;
+      if (depth == values.length) {
+        break;
+      }
+
+      SAbstractObject operand;
+      if (bytecode == PUSH_FIELD) {
+        SObject self = (SObject) frame.getSelf();
+        byte fieldIndex = bytecodes[index + 1];
+        index += 2;
+        if (self.isDoubleField(fieldIndex)) {
+          values[depth] = self.getDoubleField(fieldIndex);
+          depth += 1;
+          continue;
         }
+        operand = self.getField(fieldIndex);
+      } else if (isPushLocal(bytecode)) {
+        // the superinstructions are read as their first PUSH_LOCAL
+        operand = frame.getLocal(bytecodes[index + 1], bytecodes[index + 2]);
+        index += 3;
+      } else if (isPushArgument(bytecode)) {
+        operand = frame.getArgument(bytecodes[index + 1], bytecodes[index + 2]);
+        index += 3;
+      } else if (bytecode == PUSH_CONSTANT) {
+        operand = method.getConstant(index);
+        index += 2;
+      } else if (bytecode == PUSH_0 || bytecode == PUSH_1) {
+        operand = SInteger.getInteger(bytecode == PUSH_0 ? 0 : 1);
+        index += 1;
+      } else {
+        break;
+      }
 
-        default:
-          Universe.errorPrintln("Nasty bug in interpreter");
-          break;
+      if (!isDoubleOperand(operand)) {
+        break;
       }
+      values[depth] = getDoubleValue(operand);
+      if (operand instanceof SInteger) {
+        integers |= 1 << depth;
+      }
+      depth += 1;
+    }
+
+    if (resultIndex != -1) {
+      doubleResult = universe.newDouble(result);
+    }
+    return resultIndex;
+  }
+
+  /**
+   * @return the quickened form of the send, or SEND if it should stay a
+   *         generic send
+   */
+  private byte getQuickenedSend(final SMethod method, final int bytecodeIndex) {
+    // a send site that has an inline cache already saw other receivers, or
+    // was quickened before and reverted, and is not quickened again
+    if (method.getInlineCache(bytecodeIndex) != null || !tieringPolicy.shouldQuicken(method)) {
+      return SEND;
+    }
+
+    byte operation = getOperation((SSymbol) method.getConstant(bytecodeIndex));
+    if (operation == NO_OPERATION || !reachesPrimitive(operation, true)) {
+      return SEND;
+    }
+
+    switch (operation) {
+      case ADD:
+        return SEND_INT_ADD;
+      case SUBTRACT:
+        return SEND_INT_SUB;
+      case MULTIPLY:
+        return SEND_INT_MUL;
+      case LESS_THAN:
+        return SEND_INT_LESS;
+      case EQUAL:
+        return SEND_INT_EQUAL;
+      default:
+        return SEND;
+    }
+  }
+
+  private boolean isIntegerSend(final SAbstractObject[] stack, final int sp,
+      final byte operation) {
+    return stack[sp - 1] instanceof SInteger && stack[sp] instanceof SInteger
+        && reachesPrimitive(operation, true);
+  }
+
+  private void revertQuickenedSend(final byte[] bytecodes, final int bytecodeIndex) {
+    bytecodes[bytecodeIndex] = SEND;
+
+    // the inline cache marks the site as generic
+    getInlineCache(bytecodeIndex, universe.getInlineCacheDegree());
+  }
+
+  private byte getOperation(final SSymbol selector) {
+    for (byte i = ADD; i < operationSelectors.length; i++) {
+      if (operationSelectors[i] == selector) {
+        return i;
+      }
+    }
+    return NO_OPERATION;
+  }
+
+  boolean reachesPrimitive(final byte operation, final boolean integerReceiver) {
+    int version = universe.getLookupCache().getVersion();
+    if (version != primitiveOperationsVersion) {
+      for (byte i = ADD; i < operationSelectors.length; i++) {
+        SSymbol selector = operationSelectors[i];
+        doublePrimitiveOperations[i] = isPrimitive(universe.doubleClass, selector);
+        integerPrimitiveOperations[i] = isPrimitive(universe.integerClass, selector);
+      }
+      primitiveOperationsVersion = version;
+    }
+
+    if (integerReceiver) {
+      return integerPrimitiveOperations[operation];
+    }
+    return doublePrimitiveOperations[operation];
+  }
+
+  private static boolean isPrimitive(final SClass receiverClass, final SSymbol selector) {
+    SInvokable invokable = receiverClass.lookupInvokable(selector);
+    return invokable != null && invokable.isPrimitive()
+        && invokable.getHolder() == receiverClass
+        && !((SPrimitive) invokable).isEmpty();
+  }
+
+  private static boolean isDoubleOperand(final SAbstractObject value) {
+    return value instanceof SDouble || value instanceof SInteger;
+  }
+
+  private static double getDoubleValue(final SAbstractObject value) {
+    if (value instanceof SDouble) {
+      return ((SDouble) value).getEmbeddedDouble();
+    }
+    return ((SInteger) value).getEmbeddedInteger();
+  }
+
+  private static double applyDoubleOperation(final byte operation, final double left,
+      final double right) {
+    switch (operation) {
+      case ADD:
+        return left + right;
+      case SUBTRACT:
+        return left - right;
+      case MULTIPLY:
+        return left * right;
+      case DIVIDE:
+        return left / right;
+      default:
+        return left % right;
     }
   }
 
   public Frame pushNewFrame(final SMethod method, final Frame contextFrame) {
-    // Allocate a new frame and make it the current one
-    frame = universe.newFrame(frame, method, contextFrame);
+    int size = Frame.getFrameSize(method);
+    if (stackTop + size > valueStack.length) {
+      growValueStack(stackTop + size);
+    }
+
+    // Allocate a new frame on the value stack, or reuse one that is not used
+    // anymore, and make it the current one
+    if (numUnusedFrames > 0) {
+      numUnusedFrames -= 1;
+      Frame unused = unusedFrames[numUnusedFrames];
+      unusedFrames[numUnusedFrames] = null;
+      unused.initialize(universe.nilObject, frame, contextFrame, method, valueStack,
+          stackTop);
+      frame = unused;
+    } else {
+      frame = universe.newFrame(frame, method, contextFrame, valueStack, stackTop);
+    }
+    stackTop += size;
 
     // Return the freshly allocated and pushed frame
     return frame;
   }
 
+  private void growValueStack(final int minimumSize) {
+    SAbstractObject[] oldStack = valueStack;
+    valueStack = Arrays.copyOf(oldStack, Math.max(minimumSize, oldStack.length * 2));
+
+    // all frames still on the old stack are active, and reachable from
+    // the current frame
+    for (Frame f = frame; f != null; f = f.getPreviousFrame()) {
+      f.replaceStack(oldStack, valueStack);
+    }
+  }
+
   public Frame pushNewFrame(final SMethod method) {
     return pushNewFrame(method, null);
   }
@@ -354,41 +1170,482 @@ public class Interpreter {
 
   public SAbstractObject getSelf() {
     // Get the self object from the interpreter
-    return getFrame().getOuterContext().getArgument(0, 0);
+    return getFrame().getSelf();
   }
 
   private void send(final SSymbol selector, final SClass receiverClass,
-      final int bytecodeIndex) {
-    // First try the inline cache
-    SInvokable invokable;
+      final int bytecodeIndex) throws ProgramDefinitionError {
+    // Lookup the invokable in the inline cache of the send site
+    InlineCache cache = getInlineCache(bytecodeIndex, universe.getInlineCacheDegree());
+    SInvokable invokable = cache.lookup(receiverClass, selector, universe.getLookupCache());
 
-    SMethod m = getMethod();
-    SClass cachedClass = m.getInlineCacheClass(bytecodeIndex);
-    if (cachedClass == receiverClass) {
-      invokable = m.getInlineCacheInvokable(bytecodeIndex);
-    } else {
-      if (cachedClass == null) {
-        // Lookup the invokable with the given signature
-        invokable = receiverClass.lookupInvokable(selector);
-        m.setInlineCache(bytecodeIndex, receiverClass, invokable);
-      } else {
-        // the bytecode index after the send is used by the selector constant, and can be used
-        // safely as another cache item
-        cachedClass = m.getInlineCacheClass(bytecodeIndex + 1);
-        if (cachedClass == receiverClass) {
-          invokable = m.getInlineCacheInvokable(bytecodeIndex + 1);
-        } else {
-          invokable = receiverClass.lookupInvokable(selector);
-          if (cachedClass == null) {
-            m.setInlineCache(bytecodeIndex + 1, receiverClass, invokable);
-          }
-        }
+    if (countingSends) {
+      numberOfSends += 1;
+    }
+    if (invokable instanceof SMethod
+        && ((SMethod) invokable).getTrivialKind() != SMethod.NOT_TRIVIAL) {
+      if (countingSends) {
+        numberOfTrivialSends += 1;
       }
+      doTrivialMethod((SMethod) invokable);
+      return;
     }
+    activate(selector, invokable);
+  }
 
+  /**
+   * Activate the invokable, with its compiled code if it has any. Methods
+   * are compiled when the tiering policy decides so. Invocations of
+   * compiled code are only counted by it when the report of tiers is
+   * enabled.
+   */
+  private void activate(final SSymbol selector, final SInvokable invokable)
+      throws ProgramDefinitionError {
+    if (invokable instanceof SMethod) {
+      SMethod method = (SMethod) invokable;
+      CompiledCode code = method.getCompiledCode();
+      if (code == null) {
+        if (method.incrementInvocationCount() == 1 && invokedMethods != null) {
+          invokedMethods.add(method);
+        }
+        if (method.isCompilable() && bytecodeProfile == null
+            && tieringPolicy.shouldCompile(method)) {
+          code = compile(method);
+        }
+      }
+      if (code != null && runtime.canEnter()) {
+        invokeCompiled(code, method.getNumberOfArguments());
+        return;
+      }
+    }
     activateOrDnu(selector, invokable);
   }
 
+  /**
+   * Invoke compiled code with the arguments on the stack of the current
+   * frame, and replace them with the result.
+   */
+  private void invokeCompiled(final CompiledCode code, final int numberOfArguments)
+      throws ProgramDefinitionError {
+    Frame sender = getFrame();
+    int depth = runtime.getDepth();
+    SAbstractObject result;
+    try {
+      switch (numberOfArguments) {
+        case 1:
+          result = code.invoke(sender.getStackElement(0));
+          break;
+        case 2:
+          result = code.invoke(sender.getStackElement(1), sender.getStackElement(0));
+          break;
+        case 3:
+          result = code.invoke(sender.getStackElement(2), sender.getStackElement(1),
+              sender.getStackElement(0));
+          break;
+        default:
+          SAbstractObject[] arguments = new SAbstractObject[numberOfArguments];
+          for (int i = 0; i < numberOfArguments; i++) {
+            arguments[i] = sender.getStackElement(numberOfArguments - 1 - i);
+          }
+          result = code.invoke(arguments);
+          break;
+      }
+    } catch (NonLocalReturn e) {
+      // the compiled code is unwound up to the sender
+      runtime.setDepth(depth);
+      returnNonLocal(e.getHomeContext(), e.getResult());
+      return;
+    }
+
+    for (int i = 0; i < numberOfArguments; i++) {
+      sender.pop();
+    }
+    sender.push(result);
+  }
+
+  /**
+   * Continue the activation of the frame, which is at the header of a loop
+   * that ran for long, in compiled code, and replace the frame with the
+   * result. Methods are compiled for it, but blocks, which are not known to
+   * their holder, are not.
+   *
+   * @return whether the compiled code ran the activation
+   */
+  private boolean enterCompiledLoop(final Frame frame) throws ProgramDefinitionError {
+    SMethod method = frame.getMethod();
+    CompiledCode code = method.getCompiledCode();
+    if (code == null) {
+      if (!method.isCompilable()) {
+        return false;
+      }
+      if (loopingMethods != null && !loopingMethods.contains(method)) {
+        // methods whose code was invalidated get here again
+        loopingMethods.add(method);
+      }
+      if (bytecodeProfile != null
+          || method.getHolder().lookupInvokable(method.getSignature()) != method) {
+        method.setNotCompilable();
+        return false;
+      }
+      code = compile(method);
+      if (code == null) {
+        return false;
+      }
+    }
+
+    // frames that are the context of blocks need to stay active
+    int bytecodeIndex = frame.getBytecodeIndex();
+    if (frame.isMaterialized() || !runtime.canEnter()) {
+      return false;
+    }
+
+    SAbstractObject[] state = new SAbstractObject[Frame.getFrameSize(method)];
+    int numberOfArguments = method.getNumberOfArguments();
+    int numberOfLocals = method.getNumberOfLocals();
+    for (int i = 0; i < numberOfArguments; i++) {
+      state[i] = frame.getArgument(i);
+    }
+    for (int i = 0; i < numberOfLocals; i++) {
+      state[numberOfArguments + i] = frame.getLocal(i);
+    }
+    int numberOfStackElements =
+        frame.getStackPointer() - frame.getLocalOffset() - numberOfLocals + 1;
+    for (int i = 0; i < numberOfStackElements; i++) {
+      state[numberOfArguments + numberOfLocals + i] =
+          frame.getStackElement(numberOfStackElements - 1 - i);
+    }
+
+    int depth = runtime.getDepth();
+    SAbstractObject result;
+    try {
+      result = code.invokeFrom(state, bytecodeIndex);
+    } catch (NonLocalReturn e) {
+      // the compiled code is unwound, and the frame with it
+      numberOfLoopEntries += 1;
+      runtime.setDepth(depth);
+      returnNonLocal(e.getHomeContext(), e.getResult());
+      return true;
+    }
+    if (result == null) {
+      // the loop header is not compiled
+      return false;
+    }
+    numberOfLoopEntries += 1;
+    popFrameAndPushResult(result);
+    return true;
+  }
+
+  /**
+   * Send a message for compiled code, which is not on the frame stack. The
+   * arguments are pushed on a frame of their own, and the invokable is
+   * activated and run to completion on it.
+   */
+  SAbstractObject sendFromCompiledCode(final SAbstractObject self, final SSymbol selector,
+      final SInvokable invokable, final SAbstractObject[] arguments)
+      throws ProgramDefinitionError {
+    Frame entry = pushEntryFrame(self, arguments, arguments.length);
+
+    // the interpreter is nested on the Java stack like compiled code
+    int oldMaterializedBase = materializedBase;
+    int depth = runtime.getDepth();
+    materializedBase = numMaterializedFrames;
+    runtime.setDepth(depth + 1);
+    try {
+      activate(selector, invokable);
+      return runToEntryFrame(entry);
+    } catch (NonLocalReturn e) {
+      unwindToEntryFrame(entry);
+      throw e;
+    } finally {
+      materializedBase = oldMaterializedBase;
+      runtime.setDepth(depth);
+    }
+  }
+
+  /**
+   * Continue an activation of compiled code in the interpreter, from the
+   * given bytecode, and run it to completion.
+   *
+   * @param state the arguments, locals, and stack elements of the activation
+   */
+  SAbstractObject interpretFromCompiledCode(final SMethod method, final int bytecodeIndex,
+      final SAbstractObject[] state) throws ProgramDefinitionError {
+    int numberOfArguments = method.getNumberOfArguments();
+    Frame entry = pushEntryFrame(state[0], state, numberOfArguments);
+
+    int oldMaterializedBase = materializedBase;
+    int depth = runtime.getDepth();
+    materializedBase = numMaterializedFrames;
+    runtime.setDepth(depth + 1);
+    try {
+      Frame activation = pushNewFrame(method);
+      activation.copyArgumentsFrom(entry);
+      int numberOfLocals = method.getNumberOfLocals();
+      for (int i = 0; i < numberOfLocals; i++) {
+        activation.setLocal(i, state[numberOfArguments + i]);
+      }
+      for (int i = numberOfArguments + numberOfLocals; i < state.length; i++) {
+        activation.push(state[i]);
+      }
+      activation.setBytecodeIndex(bytecodeIndex);
+      return runToEntryFrame(entry);
+    } catch (NonLocalReturn e) {
+      unwindToEntryFrame(entry);
+      throw e;
+    } finally {
+      materializedBase = oldMaterializedBase;
+      runtime.setDepth(depth);
+    }
+  }
+
+  /**
+   * Push a frame for compiled code, with the receiver of the compiled code
+   * as its receiver, and the given number of values on its stack.
+   */
+  private Frame pushEntryFrame(final SAbstractObject self, final SAbstractObject[] values,
+      final int numberOfValues) {
+    Frame entry = pushNewFrame(getEntryMethod(numberOfValues));
+    entry.setArgument(0, 0, self);
+    for (int i = 0; i < numberOfValues; i++) {
+      entry.push(values[i]);
+    }
+    return entry;
+  }
+
+  private SAbstractObject runToEntryFrame(final Frame entry) throws ProgramDefinitionError {
+    if (frame != entry) {
+      // a method or block was activated, which returns to the HALT of the
+      // entry frame
+      start();
+    }
+    SAbstractObject result = entry.pop();
+    popFrame();
+    return result;
+  }
+
+  private void unwindToEntryFrame(final Frame entry) {
+    // drop the frames above the entry frame, and the entry frame itself, a
+    // non-local return continues below it
+    unwindMaterializedFrames(materializedBase);
+    frame = entry;
+    stackTop = entry.getValueStackOffset() + Frame.getFrameSize(entry.getMethod());
+    popFrame();
+  }
+
+  private SMethod getEntryMethod(final int numberOfArguments) {
+    if (numberOfArguments >= entryMethods.length) {
+      entryMethods = Arrays.copyOf(entryMethods, numberOfArguments + 1);
+    }
+    SMethod method = entryMethods[numberOfArguments];
+    if (method == null) {
+      // the receiver of the compiled code is the receiver of the frame, and
+      // the stack has space for the arguments, or those of
+      // doesNotUnderstand:arguments:
+      method = universe.newMethod(universe.symbolFor("compiledCode"), 1, 0,
+          Math.max(numberOfArguments, 3), null);
+      method.setBytecode(0, HALT);
+      method.setHolder(universe.systemClass);
+      entryMethods[numberOfArguments] = method;
+    }
+    return method;
+  }
+
+  /**
+   * @return the compiled code of the method, or null if it can not be
+   *         compiled, which is not attempted again
+   */
+  private CompiledCode compile(final SMethod method) {
+    CompiledCode code = compiler.compile(method);
+    if (code == null) {
+      method.setNotCompilable();
+    }
+    return code;
+  }
+
+  /**
+   * Set the number of invocations of the threshold policy after which
+   * methods are compiled, 0 disables compilation.
+   */
+  public void setCompilationThreshold(final int threshold) {
+    thresholdPolicy.setCompilationThreshold(threshold);
+  }
+
+  /**
+   * Set the number of backward jumps to the header of a loop of the
+   * threshold policy after which activations continue in compiled code, 0
+   * disables it. The default is taken from the system property
+   * som.osrThreshold.
+   */
+  public void setOnStackReplacementThreshold(final int threshold) {
+    thresholdPolicy.setOnStackReplacementThreshold(threshold);
+  }
+
+  public void setTieringPolicy(final TieringPolicy policy) {
+    tieringPolicy = policy;
+  }
+
+  public TieringPolicy getTieringPolicy() {
+    return tieringPolicy;
+  }
+
+  /**
+   * @return the default policy, whose thresholds are set by
+   *         {@link #setCompilationThreshold} and
+   *         {@link #setOnStackReplacementThreshold}
+   */
+  public ThresholdTieringPolicy getThresholdTieringPolicy() {
+    return thresholdPolicy;
+  }
+
+  /**
+   * Execute a trivial method directly on the stack of the sending frame,
+   * without activating it.
+   */
+  private void doTrivialMethod(final SMethod method) {
+    Frame frame = getFrame();
+    int numberOfArguments = method.getNumberOfArguments();
+    SAbstractObject self = frame.getStackElement(numberOfArguments - 1);
+
+    SAbstractObject result;
+    switch (method.getTrivialKind()) {
+      case SMethod.TRIVIAL_GETTER:
+        result = ((SObject) self).getField(method.getTrivialFieldIndex());
+        break;
+      case SMethod.TRIVIAL_SETTER:
+        ((SObject) self).setField(method.getTrivialFieldIndex(), frame.getStackElement(0));
+        result = self;
+        break;
+      case SMethod.TRIVIAL_CONSTANT:
+        result = method.getTrivialConstant();
+        break;
+      default:
+        result = self;
+        break;
+    }
+
+    for (int i = 0; i < numberOfArguments; i++) {
+      frame.pop();
+    }
+    frame.push(result);
+  }
+
+  public void enableBytecodeProfile() {
+    bytecodeProfile = new BytecodeProfile();
+  }
+
+  public boolean isBytecodeProfileEnabled() {
+    return bytecodeProfile != null;
+  }
+
+  public void printBytecodeProfile() {
+    if (bytecodeProfile != null) {
+      bytecodeProfile.print(20);
+    }
+  }
+
+  public void enableTrivialMethodStatistics() {
+    countingSends = true;
+  }
+
+  public void printTrivialMethodStatistics() {
+    if (!countingSends) {
+      return;
+    }
+    Universe.errorPrintln("Trivial methods: " + numberOfTrivialSends + " of "
+        + numberOfSends + " sends executed without activation");
+  }
+
+  /**
+   * Invalidate the compiled code that assumed the previous value of the
+   * global, which was rebound.
+   */
+  public void globalChanged(final SSymbol name) {
+    deoptimizer.globalChanged(name);
+  }
+
+  public void enableTierStatistics() {
+    invokedMethods = new ArrayList<>();
+    compiler.setCountingInvocations(true);
+  }
+
+  /**
+   * Print the methods that were invoked most often, and the tier they ended
+   * in.
+   */
+  public void printTierStatistics(final int numberOfMethods) {
+    if (invokedMethods == null) {
+      return;
+    }
+    Universe.errorPrintln("Tiers: " + invokedMethods.size() + " methods invoked, "
+        + compiler.getNumberOfCompiledMethods() + " compiled, policy: " + tieringPolicy);
+    List<SMethod> methods = new ArrayList<>(invokedMethods);
+    methods.sort((a, b) -> Integer.compare(b.getInvocationCount(), a.getInvocationCount()));
+    for (int i = 0; i < Math.min(numberOfMethods, methods.size()); i++) {
+      SMethod method = methods.get(i);
+      String tier;
+      if (method.getCompiledCode() != null) {
+        tier = "compiled";
+      } else if (tieringPolicy.shouldQuicken(method)) {
+        tier = "quickened";
+      } else {
+        tier = "interpreted";
+      }
+      Universe.errorPrintln(String.format("%12d %-12s", method.getInvocationCount(), tier)
+          + method.getHolder().getName().getEmbeddedString() + ">>#"
+          + method.getSignature().getEmbeddedString());
+    }
+  }
+
+  public void printDeoptimizationStatistics() {
+    deoptimizer.printStatistics();
+  }
+
+  public void printOnStackReplacementStatistics() {
+    if (loopingMethods == null) {
+      return;
+    }
+    Universe.errorPrintln("On-stack replacement: " + numberOfLoopEntries
+        + " activations continued in compiled code");
+    for (SMethod method : loopingMethods) {
+      String className = method.getHolder().getName().getEmbeddedString();
+      String methodName = method.getSignature().getEmbeddedString();
+      Universe.errorPrintln("  " + className + ">>#" + methodName + ": "
+          + method.getBackEdgeCount() + " backward jumps, "
+          + (method.getCompiledCode() != null ? "compiled" : "interpreted"));
+    }
+  }
+
+  private InlineCache getInlineCache(final int bytecodeIndex, final int degree) {
+    return getInlineCache(getMethod(), bytecodeIndex, degree);
+  }
+
+  InlineCache getInlineCache(final SMethod m, final int bytecodeIndex, final int degree) {
+    InlineCache cache = m.getInlineCache(bytecodeIndex);
+    if (cache == null) {
+      cache = new InlineCache(m, bytecodeIndex, degree,
+          universe.getLookupCache().getVersion());
+      m.setInlineCache(bytecodeIndex, cache);
+      if (inlineCaches != null) {
+        inlineCaches.add(cache);
+      }
+    }
+    return cache;
+  }
+
+  public void enableInlineCacheStatistics() {
+    inlineCaches = new ArrayList<>();
+  }
+
+  public void printInlineCacheStatistics() {
+    if (inlineCaches == null) {
+      return;
+    }
+    Universe.errorPrintln("Inline caches:");
+    for (InlineCache cache : inlineCaches) {
+      cache.printStatistics();
+    }
+  }
+
   public void activateOrDnu(final SSymbol selector, final SInvokable invokable) {
     if (invokable != null) {
       // Invoke the invokable in the current frame
@@ -403,16 +1660,40 @@ public class Interpreter {
     }
   }
 
+  private void materialize(final Frame frame) {
+    frame.materialize();
+    if (numMaterializedFrames == materializedFrames.length) {
+      materializedFrames = Arrays.copyOf(materializedFrames, numMaterializedFrames * 2);
+    }
+    materializedFrames[numMaterializedFrames] = frame;
+    numMaterializedFrames += 1;
+  }
+
   private Frame popFrame() {
     // Save a reference to the top frame
     Frame result = frame;
 
-    // Pop the top frame from the frame stack
+    // Pop the top frame from the frame stack and release its space on the
+    // value stack, frames are always popped in the order they were pushed
     frame = frame.getPreviousFrame();
+    stackTop -= Frame.getFrameSize(result.getMethod());
 
     // Destroy the previous pointer on the old top frame
     result.clearPreviousFrame();
 
+    // a frame that was not captured by a block can not be referenced anymore
+    if (result.isMaterialized()) {
+      assert materializedFrames[numMaterializedFrames - 1] == result;
+      numMaterializedFrames -= 1;
+      materializedFrames[numMaterializedFrames] = null;
+    } else {
+      if (numUnusedFrames == unusedFrames.length) {
+        unusedFrames = Arrays.copyOf(unusedFrames, unusedFrames.length * 2);
+      }
+      unusedFrames[numUnusedFrames] = result;
+      numUnusedFrames += 1;
+    }
+
     // Return the popped frame
     return result;
   }
@@ -0,0 +1,285 @@
+package som.interpreter;
+
+import som.compiler.ProgramDefinitionError;
+import som.vm.Universe;
+import som.vmobjects.SAbstractObject;
+import som.vmobjects.SDouble;
+import som.vmobjects.SInteger;
+import som.vmobjects.SInvokable;
+import som.vmobjects.SMethod;
+import som.vmobjects.SObject;
+import som.vmobjects.SSymbol;
+
+
+/**
+ * The operations that code compiled by the {@link BaselineCompiler} calls
+ * into. Arithmetic operations return null if they do not apply to their
+ * operands, in which case the compiled code does a normal send.
+ */
+public final class JitRuntime {
+
+  // the number of activations of compiled code, and of the interpreter on
+  // behalf of compiled code, that can be nested on the Java stack. Beyond
+  // it, methods are interpreted, which keeps its frames on the heap. Each
+  // activation takes several Java frames, including the method handles of
+  // the send sites, which are large until the JVM compiles them.
+  private static final int MAX_DEPTH = 400;
+
+  private final Universe    universe;
+  private final Interpreter interpreter;
+  private final Deoptimizer deoptimizer;
+
+  private int depth;
+
+  JitRuntime(final Universe universe, final Interpreter interpreter,
+      final Deoptimizer deoptimizer) {
+    this.universe = universe;
+    this.interpreter = interpreter;
+    this.deoptimizer = deoptimizer;
+  }
+
+  /**
+   * Enter an activation of compiled code, which leaves it with
+   * {@link #exit()}, or is unwound by an exception, after which the
+   * interpreter restores the depth.
+   *
+   * @return whether the activation can be run by compiled code
+   */
+  public boolean enter() {
+    depth += 1;
+    return depth <= MAX_DEPTH;
+  }
+
+  public void exit() {
+    depth -= 1;
+  }
+
+  Universe getUniverse() {
+    return universe;
+  }
+
+  InlineCache getInlineCache(final SMethod method, final int bytecodeIndex, final int degree) {
+    return interpreter.getInlineCache(method, bytecodeIndex, degree);
+  }
+
+  boolean canEnter() {
+    return depth < MAX_DEPTH;
+  }
+
+  int getDepth() {
+    return depth;
+  }
+
+  void setDepth(final int value) {
+    depth = value;
+  }
+
+  public SAbstractObject newBlock(final SMethod blockMethod) throws ProgramDefinitionError {
+    // only blocks that do not use their context are created by compiled code
+    return universe.newBlock(blockMethod, null, blockMethod.getNumberOfArguments());
+  }
+
+  public SAbstractObject getGlobal(final SSymbol name, final SAbstractObject self)
+      throws ProgramDefinitionError {
+    SAbstractObject global = universe.getGlobal(name);
+    if (global != null) {
+      return global;
+    }
+    return interpreter.sendFromCompiledCode(self, universe.symbolFor("unknownGlobal:"),
+        self.getSOMClass(universe).lookupInvokable(universe.symbolFor("unknownGlobal:")),
+        new SAbstractObject[] {self, name});
+  }
+
+  /**
+   * @return whether the counter of a counted loop is greater than the limit.
+   *         A counter that is not an SInteger anymore has overflowed, and is
+   *         beyond any limit.
+   */
+  public static boolean isGreater(final SAbstractObject counter, final SAbstractObject limit) {
+    if (!(counter instanceof SInteger)) {
+      return true;
+    }
+    long value = ((SInteger) counter).getEmbeddedInteger();
+    return value > ((SInteger) limit).getEmbeddedInteger();
+  }
+
+  public static boolean isLess(final SAbstractObject counter, final SAbstractObject limit) {
+    if (!(counter instanceof SInteger)) {
+      return true;
+    }
+    long value = ((SInteger) counter).getEmbeddedInteger();
+    return value < ((SInteger) limit).getEmbeddedInteger();
+  }
+
+  public SAbstractObject increment(final SAbstractObject counter, final SAbstractObject step) {
+    return ((SInteger) counter).primAdd((SInteger) step, universe);
+  }
+
+  public SAbstractObject add(final SAbstractObject left, final SAbstractObject right) {
+    if (left instanceof SInteger && right instanceof SInteger) {
+      if (!interpreter.reachesPrimitive(Interpreter.ADD, true)) {
+        return null;
+      }
+      try {
+        return universe.newInteger(Math.addExact(((SInteger) left).getEmbeddedInteger(),
+            ((SInteger) right).getEmbeddedInteger()));
+      } catch (ArithmeticException e) {
+        // the send results in a big integer
+        return null;
+      }
+    }
+    if (!isDoubleOperation(Interpreter.ADD, left, right)) {
+      return null;
+    }
+    return universe.newDouble(getDoubleValue(left) + getDoubleValue(right));
+  }
+
+  public SAbstractObject subtract(final SAbstractObject left, final SAbstractObject right) {
+    if (left instanceof SInteger && right instanceof SInteger) {
+      if (!interpreter.reachesPrimitive(Interpreter.SUBTRACT, true)) {
+        return null;
+      }
+      try {
+        return universe.newInteger(Math.subtractExact(((SInteger) left).getEmbeddedInteger(),
+            ((SInteger) right).getEmbeddedInteger()));
+      } catch (ArithmeticException e) {
+        // the send results in a big integer
+        return null;
+      }
+    }
+    if (!isDoubleOperation(Interpreter.SUBTRACT, left, right)) {
+      return null;
+    }
+    return universe.newDouble(getDoubleValue(left) - getDoubleValue(right));
+  }
+
+  public SAbstractObject multiply(final SAbstractObject left, final SAbstractObject right) {
+    if (left instanceof SInteger && right instanceof SInteger) {
+      if (!interpreter.reachesPrimitive(Interpreter.MULTIPLY, true)) {
+        return null;
+      }
+      try {
+        return universe.newInteger(Math.multiplyExact(((SInteger) left).getEmbeddedInteger(),
+            ((SInteger) right).getEmbeddedInteger()));
+      } catch (ArithmeticException e) {
+        // the send results in a big integer
+        return null;
+      }
+    }
+    if (!isDoubleOperation(Interpreter.MULTIPLY, left, right)) {
+      return null;
+    }
+    return universe.newDouble(getDoubleValue(left) * getDoubleValue(right));
+  }
+
+  public SAbstractObject lessThan(final SAbstractObject left, final SAbstractObject right) {
+    if (left instanceof SInteger && right instanceof SInteger) {
+      if (!interpreter.reachesPrimitive(Interpreter.LESS_THAN, true)) {
+        return null;
+      }
+      long l = ((SInteger) left).getEmbeddedInteger();
+      long r = ((SInteger) right).getEmbeddedInteger();
+      return asBoolean(l < r);
+    }
+    if (!isDoubleOperation(Interpreter.LESS_THAN, left, right)) {
+      return null;
+    }
+    return asBoolean(getDoubleValue(left) < getDoubleValue(right));
+  }
+
+  public SAbstractObject equal(final SAbstractObject left, final SAbstractObject right) {
+    if (left instanceof SInteger && right instanceof SInteger) {
+      if (!interpreter.reachesPrimitive(Interpreter.EQUAL, true)) {
+        return null;
+      }
+      long l = ((SInteger) left).getEmbeddedInteger();
+      long r = ((SInteger) right).getEmbeddedInteger();
+      return asBoolean(l == r);
+    }
+    if (!isDoubleOperation(Interpreter.EQUAL, left, right)) {
+      return null;
+    }
+    return asBoolean(getDoubleValue(left) == getDoubleValue(right));
+  }
+
+  private SObject asBoolean(final boolean value) {
+    return value ? universe.trueObject : universe.falseObject;
+  }
+
+  /**
+   * @return whether the operation is on a double and a number, or on an
+   *         integer and a double, and reaches the primitive of the receiver
+   */
+  private boolean isDoubleOperation(final byte operation, final SAbstractObject left,
+      final SAbstractObject right) {
+    if (left instanceof SDouble) {
+      return (right instanceof SDouble || right instanceof SInteger)
+          && interpreter.reachesPrimitive(operation, false);
+    }
+    return left instanceof SInteger && right instanceof SDouble
+        && interpreter.reachesPrimitive(operation, true);
+  }
+
+  private static double getDoubleValue(final SAbstractObject value) {
+    if (value instanceof SDouble) {
+      return ((SDouble) value).getEmbeddedDouble();
+    }
+    return ((SInteger) value).getEmbeddedInteger();
+  }
+
+  /**
+   * Send the message of the send site at the given bytecode index, looking
+   * up the invokable in its inline cache. Megamorphic send sites of
+   * compiled code link to it.
+   */
+  public SAbstractObject send(final SAbstractObject self, final SMethod method,
+      final int bytecodeIndex, final SAbstractObject[] arguments)
+      throws ProgramDefinitionError {
+    SSymbol selector = (SSymbol) method.getConstant(bytecodeIndex);
+    InlineCache cache = interpreter.getInlineCache(method, bytecodeIndex,
+        universe.getInlineCacheDegree());
+    SInvokable invokable = cache.lookup(arguments[0].getSOMClass(universe), selector,
+        universe.getLookupCache());
+    return invoke(self, selector, invokable, arguments);
+  }
+
+  /**
+   * Continue an activation of the method in the interpreter, from the given
+   * bytecode.
+   *
+   * @param state the arguments, locals, and stack elements of the activation
+   */
+  public SAbstractObject interpret(final SMethod method, final int bytecodeIndex,
+      final SAbstractObject[] state) throws ProgramDefinitionError {
+    return interpreter.interpretFromCompiledCode(method, bytecodeIndex, state);
+  }
+
+  /**
+   * Continue an activation of invalidated compiled code in the interpreter,
+   * from the bytecode whose assumption does not hold anymore.
+   *
+   * @param state the arguments, locals, and stack elements of the activation
+   */
+  public SAbstractObject deoptimize(final SMethod method, final int bytecodeIndex,
+      final SAbstractObject[] state) throws ProgramDefinitionError {
+    deoptimizer.countDeoptimization();
+    return interpreter.interpretFromCompiledCode(method, bytecodeIndex, state);
+  }
+
+  /**
+   * Invoke the invokable, with compiled code if it has any, and with the
+   * interpreter otherwise. A null invokable results in
+   * doesNotUnderstand:arguments: being sent.
+   */
+  public SAbstractObject invoke(final SAbstractObject self, final SSymbol selector,
+      final SInvokable invokable, final SAbstractObject[] arguments)
+      throws ProgramDefinitionError {
+    if (invokable instanceof SMethod) {
+      CompiledCode code = ((SMethod) invokable).getCompiledCode();
+      if (code != null) {
+        return code.invoke(arguments);
+      }
+    }
+    return interpreter.sendFromCompiledCode(self, selector, invokable, arguments);
+  }
+}
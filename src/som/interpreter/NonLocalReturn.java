@@ -0,0 +1,31 @@
+package som.interpreter;
+
+import som.vmobjects.SAbstractObject;
+
+
+/**
+ * Thrown when a non-local return passes through compiled code, whose
+ * activations are not on the frame stack of the interpreter. It unwinds the
+ * compiled code up to the interpreter that runs the frames below it, which
+ * continues the return.
+ */
+final class NonLocalReturn extends RuntimeException {
+  private static final long serialVersionUID = -6165473652437484342L;
+
+  private final Frame           homeContext;
+  private final SAbstractObject result;
+
+  NonLocalReturn(final Frame homeContext, final SAbstractObject result) {
+    super(null, null, false, false);
+    this.homeContext = homeContext;
+    this.result = result;
+  }
+
+  Frame getHomeContext() {
+    return homeContext;
+  }
+
+  SAbstractObject getResult() {
+    return result;
+  }
+}
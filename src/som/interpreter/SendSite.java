@@ -0,0 +1,247 @@
+package som.interpreter;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+import java.util.Arrays;
+
+import som.compiler.ProgramDefinitionError;
+import som.vm.Universe;
+import som.vmobjects.SAbstractObject;
+import som.vmobjects.SClass;
+import som.vmobjects.SInvokable;
+import som.vmobjects.SMethod;
+import som.vmobjects.SObject;
+import som.vmobjects.SSymbol;
+
+
+/**
+ * The call site of an invokedynamic instruction, with which code compiled by
+ * the {@link BaselineCompiler} sends a message. Its arguments are self of the
+ * sending method, the receiver, and the arguments of the message.
+ *
+ * The target of the site is a chain of method handles built from the inline
+ * cache of the send, which checks the receiver class for each cached class,
+ * and calls the compiled code of the cached method directly, or executes it
+ * if it is trivial. This lets the JVM inline across sends. A receiver that
+ * is not cached falls back to {@link #handleMiss}, which looks it up in the
+ * inline cache, and relinks the site. A megamorphic site sends the message
+ * normally.
+ *
+ * The chain is guarded by the switch point of the lookup cache, which is
+ * invalidated when classes change, after which the site relinks on its next
+ * send.
+ */
+public final class SendSite extends MutableCallSite {
+
+  private static final MethodHandle HANDLE_MISS;
+  private static final MethodHandle IS_CLASS;
+  private static final MethodHandle IS_INTERPRETED;
+  private static final MethodHandle GET_FIELD;
+  private static final MethodHandle SET_FIELD;
+  private static final MethodHandle INVOKE;
+  private static final MethodHandle SEND;
+
+  static {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      HANDLE_MISS = lookup.findVirtual(SendSite.class, "handleMiss",
+          MethodType.methodType(SAbstractObject.class, SAbstractObject[].class));
+      IS_CLASS = lookup.findStatic(SendSite.class, "isClass", MethodType.methodType(
+          boolean.class, SClass.class, Universe.class, SAbstractObject.class));
+      IS_INTERPRETED = lookup.findStatic(SendSite.class, "isInterpreted",
+          MethodType.methodType(boolean.class, SMethod.class));
+      GET_FIELD = lookup.findStatic(SendSite.class, "getField",
+          MethodType.methodType(SAbstractObject.class, long.class, SAbstractObject.class));
+      SET_FIELD = lookup.findStatic(SendSite.class, "setField", MethodType.methodType(
+          SAbstractObject.class, long.class, SAbstractObject.class, SAbstractObject.class));
+      INVOKE = lookup.findVirtual(JitRuntime.class, "invoke",
+          MethodType.methodType(SAbstractObject.class, SAbstractObject.class, SSymbol.class,
+              SInvokable.class, SAbstractObject[].class));
+      SEND = lookup.findVirtual(JitRuntime.class, "send",
+          MethodType.methodType(SAbstractObject.class, SAbstractObject.class, SMethod.class,
+              int.class, SAbstractObject[].class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final JitRuntime  runtime;
+  private final Universe    universe;
+  private final SMethod     method;
+  private final int         bytecodeIndex;
+  private final SSymbol     selector;
+  private final InlineCache cache;
+
+  // the receiver class of a super send, or null for a normal send
+  private final SClass superClass;
+
+  private final MethodHandle fallback;
+
+  private SendSite(final MethodType type, final JitRuntime runtime, final Universe universe,
+      final SMethod method, final int bytecodeIndex, final boolean superSend) {
+    super(type);
+    this.runtime = runtime;
+    this.universe = universe;
+    this.method = method;
+    this.bytecodeIndex = bytecodeIndex;
+    this.selector = (SSymbol) method.getConstant(bytecodeIndex);
+    this.superClass = superSend ? (SClass) method.getHolder().getSuperClass() : null;
+    this.cache = runtime.getInlineCache(method, bytecodeIndex,
+        superSend ? 1 : universe.getInlineCacheDegree());
+    MethodHandle miss = HANDLE_MISS.bindTo(this);
+    this.fallback =
+        miss.asCollector(SAbstractObject[].class, type.parameterCount()).asType(type);
+    relink();
+  }
+
+  /**
+   * Bootstrap a send site. The runtime and the sending method are constants
+   * of the compiled class, which it has as its class data.
+   */
+  public static CallSite bootstrapSend(final MethodHandles.Lookup lookup, final String name,
+      final MethodType type, final int runtimeIndex, final int methodIndex,
+      final int bytecodeIndex) throws IllegalAccessException {
+    return bootstrap(lookup, type, runtimeIndex, methodIndex, bytecodeIndex, false);
+  }
+
+  public static CallSite bootstrapSuperSend(final MethodHandles.Lookup lookup,
+      final String name, final MethodType type, final int runtimeIndex,
+      final int methodIndex, final int bytecodeIndex) throws IllegalAccessException {
+    return bootstrap(lookup, type, runtimeIndex, methodIndex, bytecodeIndex, true);
+  }
+
+  private static CallSite bootstrap(final MethodHandles.Lookup lookup, final MethodType type,
+      final int runtimeIndex, final int methodIndex, final int bytecodeIndex,
+      final boolean superSend) throws IllegalAccessException {
+    Object[] constants = MethodHandles.classData(lookup, "_", Object[].class);
+    JitRuntime runtime = (JitRuntime) constants[runtimeIndex];
+    return new SendSite(type, runtime, runtime.getUniverse(), (SMethod) constants[methodIndex],
+        bytecodeIndex, superSend);
+  }
+
+  /**
+   * Send the message to a receiver that the target does not handle, and
+   * relink the site.
+   *
+   * @param arguments self, the receiver, and the arguments
+   */
+  private SAbstractObject handleMiss(final SAbstractObject[] arguments)
+      throws ProgramDefinitionError {
+    SAbstractObject[] sendArguments = Arrays.copyOfRange(arguments, 1, arguments.length);
+
+    SClass receiverClass = superClass != null ? superClass
+        : sendArguments[0].getSOMClass(universe);
+    SInvokable invokable = cache.lookup(receiverClass, selector, universe.getLookupCache());
+    relink();
+    return runtime.invoke(arguments[0], selector, invokable, sendArguments);
+  }
+
+  /**
+   * Set the target to a chain for the entries of the inline cache.
+   */
+  private void relink() {
+    MethodType type = type();
+    int numberOfArguments = type.parameterCount() - 1;
+
+    MethodHandle chain;
+    if (cache.isMegamorphic()) {
+      MethodHandle send =
+          MethodHandles.insertArguments(SEND.bindTo(runtime), 1, method, bytecodeIndex);
+      chain = send.asCollector(SAbstractObject[].class, numberOfArguments);
+    } else {
+      chain = fallback;
+      if (cache.isValid(universe.getLookupCache())) {
+        for (int i = 0; i < cache.getSize(); i++) {
+          MethodHandle target = getTarget(cache.getInvokable(i), numberOfArguments);
+          if (superClass != null) {
+            chain = target;
+          } else {
+            SClass receiverClass = cache.getReceiverClass(i);
+            MethodHandle isClass =
+                MethodHandles.insertArguments(IS_CLASS, 0, receiverClass, universe);
+            MethodHandle test =
+                MethodHandles.dropArguments(isClass, 0, SAbstractObject.class);
+            chain = MethodHandles.guardWithTest(test, target, chain);
+          }
+        }
+      }
+    }
+
+    SwitchPoint switchPoint = universe.getLookupCache().getSwitchPoint();
+    setTarget(switchPoint.guardWithTest(chain.asType(type), fallback));
+  }
+
+  /**
+   * @return a handle that takes self, the receiver, and the arguments, and
+   *         executes the invokable
+   */
+  private MethodHandle getTarget(final SInvokable invokable, final int numberOfArguments) {
+    Class<?>[] arguments = new Class<?>[numberOfArguments - 1];
+    Arrays.fill(arguments, SAbstractObject.class);
+
+    if (invokable instanceof SMethod) {
+      SMethod target = (SMethod) invokable;
+      long fieldIndex = target.getTrivialFieldIndex();
+      switch (target.getTrivialKind()) {
+        case SMethod.TRIVIAL_GETTER:
+          return MethodHandles.dropArguments(
+              MethodHandles.insertArguments(GET_FIELD, 0, fieldIndex),
+              0, SAbstractObject.class);
+        case SMethod.TRIVIAL_SETTER:
+          return MethodHandles.dropArguments(
+              MethodHandles.insertArguments(SET_FIELD, 0, fieldIndex),
+              0, SAbstractObject.class);
+        case SMethod.TRIVIAL_CONSTANT:
+          return MethodHandles.dropArguments(
+              MethodHandles.constant(SAbstractObject.class, target.getTrivialConstant()),
+              0, type().parameterList());
+        case SMethod.TRIVIAL_SELF:
+          return MethodHandles.dropArguments(MethodHandles.dropArguments(
+              MethodHandles.identity(SAbstractObject.class), 1, arguments),
+              0, SAbstractObject.class);
+        default:
+          break;
+      }
+
+      // the site relinks when the code is invalidated
+      CompiledCode code = target.getCompiledCode();
+      if (code != null) {
+        return code.getValidity().guardWithTest(
+            MethodHandles.dropArguments(code.getExecuteHandle(), 0, SAbstractObject.class),
+            fallback);
+      }
+    }
+
+    // primitives and methods that are not compiled yet. Once the method is
+    // compiled, the site relinks to call its code directly.
+    MethodHandle invoke = MethodHandles.insertArguments(INVOKE.bindTo(runtime), 1, selector,
+        invokable).asCollector(SAbstractObject[].class, numberOfArguments);
+    if (invokable instanceof SMethod) {
+      invoke = MethodHandles.guardWithTest(IS_INTERPRETED.bindTo(invokable), invoke, fallback);
+    }
+    return invoke;
+  }
+
+  private static boolean isClass(final SClass expected, final Universe universe,
+      final SAbstractObject receiver) {
+    return receiver.getSOMClass(universe) == expected;
+  }
+
+  private static boolean isInterpreted(final SMethod method) {
+    return method.getCompiledCode() == null;
+  }
+
+  private static SAbstractObject getField(final long index, final SAbstractObject receiver) {
+    return ((SObject) receiver).getField(index);
+  }
+
+  private static SAbstractObject setField(final long index, final SAbstractObject receiver,
+      final SAbstractObject value) {
+    ((SObject) receiver).setField(index, value);
+    return receiver;
+  }
+}
@@ -0,0 +1,67 @@
+package som.interpreter;
+
+import som.vmobjects.SMethod;
+
+
+/**
+ * The default tiering policy, which quickens sends from the start, if
+ * enabled, and compiles methods once their invocations, or the backward
+ * jumps of one of their loops, reach a threshold. A threshold of 0 disables
+ * that kind of compilation.
+ */
+public final class ThresholdTieringPolicy implements TieringPolicy {
+
+  private final boolean quickening;
+
+  private int compilationThreshold;
+  private int osrThreshold;
+
+  public ThresholdTieringPolicy(final boolean quickening, final int compilationThreshold,
+      final int osrThreshold) {
+    this.quickening = quickening;
+    this.compilationThreshold = compilationThreshold;
+    this.osrThreshold = osrThreshold;
+  }
+
+  public int getCompilationThreshold() {
+    return compilationThreshold;
+  }
+
+  public void setCompilationThreshold(final int threshold) {
+    compilationThreshold = threshold;
+  }
+
+  public int getOnStackReplacementThreshold() {
+    return osrThreshold;
+  }
+
+  public void setOnStackReplacementThreshold(final int threshold) {
+    osrThreshold = threshold;
+  }
+
+  @Override
+  public boolean shouldQuicken(final SMethod method) {
+    return quickening;
+  }
+
+  @Override
+  public boolean shouldCompile(final SMethod method) {
+    return compilationThreshold > 0 && method.getInvocationCount() >= compilationThreshold;
+  }
+
+  @Override
+  public boolean shouldCompileLoop(final SMethod method, final int loopHeader) {
+    return compilationThreshold > 0 && osrThreshold > 0
+        && method.getBackEdgeCount(loopHeader) >= osrThreshold;
+  }
+
+  @Override
+  public String toString() {
+    if (compilationThreshold == 0) {
+      return quickening ? "quickening" : "interpreter";
+    }
+    return "jit" + (quickening ? "" : " without quickening") + ", compilation threshold: "
+        + compilationThreshold + " invocations, on-stack replacement threshold: "
+        + osrThreshold + " backward jumps";
+  }
+}
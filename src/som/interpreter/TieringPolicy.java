@@ -0,0 +1,38 @@
+package som.interpreter;
+
+import som.vmobjects.SMethod;
+
+
+/**
+ * Decides in which tier methods are executed. Methods start in the
+ * interpreter, which can rewrite their sends on integers to quickened forms,
+ * and are compiled to JVM bytecode by the {@link BaselineCompiler} once they
+ * are invoked often, or a loop of them runs for long.
+ *
+ * The interpreter counts the invocations of methods, and the backward jumps
+ * to the header of each loop, on the {@link SMethod}, and asks the policy
+ * when the counts change. A policy can be given on the command line by the
+ * name of its class, which needs a public constructor without parameters.
+ */
+public interface TieringPolicy {
+
+  /**
+   * @return whether the interpreter rewrites sends of the method to
+   *         quickened forms, which is asked when a send is first executed on
+   *         integers
+   */
+  boolean shouldQuicken(SMethod method);
+
+  /**
+   * @return whether the method is compiled, which is asked on invocations
+   *         by the interpreter while it is not
+   */
+  boolean shouldCompile(SMethod method);
+
+  /**
+   * @return whether the method is compiled, and the activation continues in
+   *         compiled code, which is asked on backward jumps of the
+   *         interpreter to the header of a loop
+   */
+  boolean shouldCompileLoop(SMethod method, int loopHeader);
+}
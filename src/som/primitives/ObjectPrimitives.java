@@ -31,6 +31,7 @@ import som.vm.Universe;
 import som.vmobjects.SAbstractObject;
 import som.vmobjects.SArray;
 import som.vmobjects.SClass;
+import som.vmobjects.SDouble;
 import som.vmobjects.SInteger;
 import som.vmobjects.SInvokable;
 import som.vmobjects.SObject;
@@ -52,7 +53,8 @@ public class ObjectPrimitives extends Primitives {
       public void invoke(final Frame frame, final Interpreter interpreter) {
         SAbstractObject op1 = frame.pop();
         SAbstractObject op2 = frame.pop();
-        if (op1 == op2) {
+        if (op1 == op2 || (op1 instanceof SInteger && ((SInteger) op1).isIdenticalTo(op2))
+            || (op1 instanceof SDouble && ((SDouble) op1).isIdenticalTo(op2))) {
           frame.push(universe.trueObject);
         } else {
           frame.push(universe.falseObject);
@@ -39,7 +39,11 @@ import som.compiler.Disassembler;
 import som.compiler.ProgramDefinitionError;
 import som.compiler.SourcecodeCompiler;
 import som.interpreter.Frame;
+import som.interpreter.InlineCache;
 import som.interpreter.Interpreter;
+import som.interpreter.ThresholdTieringPolicy;
+import som.interpreter.TieringPolicy;
+import som.vmobjects.LookupCache;
 import som.vmobjects.SAbstractObject;
 import som.vmobjects.SArray;
 import som.vmobjects.SBigInteger;
@@ -86,8 +90,8 @@ public class Universe {
   }
 
   public Universe() {
-    this.interpreter = new Interpreter(this);
     this.symbolTable = new HashMap<String, SSymbol>();
+    this.interpreter = new Interpreter(this);
     this.avoidExit = false;
     this.lastExitCode = 0;
 
@@ -95,8 +99,8 @@ public class Universe {
   }
 
   public Universe(final boolean avoidExit) {
-    this.interpreter = new Interpreter(this);
     this.symbolTable = new HashMap<String, SSymbol>();
+    this.interpreter = new Interpreter(this);
     this.avoidExit = avoidExit;
     this.lastExitCode = 0;
 
@@ -107,11 +111,26 @@ public class Universe {
     return current;
   }
 
+  public LookupCache getLookupCache() {
+    return lookupCache;
+  }
+
+  public int getInlineCacheDegree() {
+    return inlineCacheDegree;
+  }
+
   public Interpreter getInterpreter() {
     return interpreter;
   }
 
   public void exit(final long errorCode) {
+    interpreter.printInlineCacheStatistics();
+    interpreter.printTrivialMethodStatistics();
+    interpreter.printBytecodeProfile();
+    interpreter.printOnStackReplacementStatistics();
+    interpreter.printDeoptimizationStatistics();
+    interpreter.printTierStatistics(20);
+
     // Exit from the Java system
     if (!avoidExit) {
       System.exit((int) errorCode);
@@ -148,6 +167,58 @@ public class Universe {
         gotClasspath = true;
       } else if (arguments[i].equals("-d") && !sawOthers) {
         dumpBytecodes = true;
+      } else if (arguments[i].equals("-ic") && !sawOthers) {
+        if (i + 1 >= arguments.length) {
+          printUsageAndExit();
+        }
+        try {
+          inlineCacheDegree = Integer.parseInt(arguments[i + 1]);
+        } catch (NumberFormatException e) {
+          printUsageAndExit();
+        }
+        if (inlineCacheDegree < 1) {
+          printUsageAndExit();
+        }
+        // Checkstyle: stop
+        ++i; // skip degree
+        // Checkstyle: resume
+      } else if (arguments[i].equals("-jit") && !sawOthers) {
+        if (i + 1 >= arguments.length) {
+          printUsageAndExit();
+        }
+        int threshold = -1;
+        try {
+          threshold = Integer.parseInt(arguments[i + 1]);
+        } catch (NumberFormatException e) {
+          printUsageAndExit();
+        }
+        if (threshold < 0) {
+          printUsageAndExit();
+        }
+        interpreter.setCompilationThreshold(threshold);
+        // Checkstyle: stop
+        ++i; // skip threshold
+        // Checkstyle: resume
+      } else if (arguments[i].equals("-tiering") && !sawOthers) {
+        if (i + 1 >= arguments.length) {
+          printUsageAndExit();
+        }
+        TieringPolicy policy = createTieringPolicy(arguments[i + 1]);
+        if (policy == null) {
+          printUsageAndExit();
+        }
+        interpreter.setTieringPolicy(policy);
+        // Checkstyle: stop
+        ++i; // skip policy
+        // Checkstyle: resume
+      } else if (arguments[i].equals("-tierstats") && !sawOthers) {
+        interpreter.enableTierStatistics();
+      } else if (arguments[i].equals("-icstats") && !sawOthers) {
+        interpreter.enableInlineCacheStatistics();
+      } else if (arguments[i].equals("-bcprofile") && !sawOthers) {
+        interpreter.enableBytecodeProfile();
+      } else if (arguments[i].equals("-tmstats") && !sawOthers) {
+        interpreter.enableTrivialMethodStatistics();
       } else {
         sawOthers = true;
         remainingArgs.add(arguments[i]);
@@ -176,6 +247,28 @@ public class Universe {
     return remainingArgs.toArray(new String[remainingArgs.size()]);
   }
 
+  /**
+   * @return the tiering policy of the given name, or of the class with the
+   *         name, or null if there is none
+   */
+  private TieringPolicy createTieringPolicy(final String name) {
+    switch (name) {
+      case "interpreter":
+        return new ThresholdTieringPolicy(false, 0, 0);
+      case "quickening":
+        return new ThresholdTieringPolicy(true, 0, 0);
+      case "jit":
+        return interpreter.getThresholdTieringPolicy();
+      default:
+        try {
+          return (TieringPolicy) Class.forName(name).getConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+          errorPrintln("Could not create the tiering policy " + name + ": " + e);
+          return null;
+        }
+    }
+  }
+
   // take argument of the form "../foo/Test.som" and return
   // "../foo", "Test", "som"
   private String[] getPathClassExt(final String arg) {
@@ -253,6 +346,20 @@ public class Universe {
         + ">");
     println("                  set search path for application classes");
     println("    -d            enable disassembling");
+    println("    -ic <degree>  set the number of receiver classes cached per send");
+    println("    -icstats      print the state of all inline caches on exit");
+    println("    -jit <count>  compile methods to JVM bytecode after this number of");
+    println("                  invocations, 0 disables compilation (default: "
+        + Interpreter.DEFAULT_COMPILATION_THRESHOLD + ")");
+    println("    -tiering <policy>");
+    println("                  set when methods are quickened and compiled: interpreter,");
+    println("                  quickening, jit, or the name of a class implementing");
+    println("                  som.interpreter.TieringPolicy (default: jit)");
+    println("    -tierstats    print the most frequently invoked methods, and the tier");
+    println("                  they ended in, on exit");
+    println("    -tmstats      print the number of sends to trivial methods on exit");
+    println("    -bcprofile    print the most frequently executed bytecode sequences");
+    println("                  on exit, to select superinstructions");
 
     // Exit
     System.exit(0);
@@ -387,6 +494,12 @@ public class Universe {
     // Load the generic block class
     blockClass = loadClass(symbolFor("Block"));
 
+    // Load the block classes for the number of arguments blocks usually have,
+    // the first argument is the block itself
+    for (int i = 1; i < blockClasses.length; i++) {
+      blockClasses[i] = getBlockClass(i);
+    }
+
     // Setup the true and false objects
     SSymbol trueSymbol = symbolFor("True");
     trueClass = loadClass(trueSymbol);
@@ -426,7 +539,7 @@ public class Universe {
   }
 
   public SArray newArray(final long length) {
-    return new SArray(nilObject, length);
+    return new SArray(this, length);
   }
 
   public SArray newArray(final List<?> list) {
@@ -458,7 +571,13 @@ public class Universe {
   public SBlock newBlock(final SMethod method, final Frame context, final int arguments)
       throws ProgramDefinitionError {
     // Allocate a new block and set its class to be the block class
-    SBlock result = new SBlock(method, context, getBlockClass(arguments));
+    SClass blockClassForArguments;
+    if (arguments < blockClasses.length) {
+      blockClassForArguments = blockClasses[arguments];
+    } else {
+      blockClassForArguments = getBlockClass(arguments);
+    }
+    SBlock result = new SBlock(method, context, blockClassForArguments);
     return result;
   }
 
@@ -472,16 +591,9 @@ public class Universe {
   }
 
   public Frame newFrame(final Frame previousFrame, final SMethod method,
-      final Frame context) {
-
-    // Compute the maximum number of stack locations (including arguments,
-    // locals and extra buffer to support doesNotUnderstand) and set the number
-    // of indexable fields accordingly
-    long length = method.getNumberOfArguments()
-        + method.getNumberOfLocals()
-        + method.getMaximumNumberOfStackElements() + 2;
-
-    Frame result = new Frame(nilObject, previousFrame, context, method, length);
+      final Frame context, final SAbstractObject[] stack, final int base) {
+    // Allocate a new frame on the given stack
+    Frame result = new Frame(nilObject, previousFrame, context, method, stack, base);
 
     // Return the freshly allocated frame
     return result;
@@ -498,9 +610,7 @@ public class Universe {
 
   public SObject newInstance(final SClass instanceClass) {
     // Allocate a new instance and set its class to be the given class
-    SObject result = new SObject(instanceClass.getNumberOfInstanceFields(),
-        nilObject);
-    result.setClass(instanceClass);
+    SObject result = new SObject(instanceClass, nilObject);
 
     // Return the freshly allocated instance
     return result;
@@ -602,8 +712,12 @@ public class Universe {
   }
 
   public void setGlobal(final SSymbol name, final SAbstractObject value) {
-    // Insert the given value into the dictionary of globals
-    globals.put(name, value);
+    // Insert the given value into the dictionary of globals, compiled code
+    // may have assumed the previous one
+    SAbstractObject previous = globals.put(name, value);
+    if (previous != null && previous != value) {
+      interpreter.globalChanged(name);
+    }
   }
 
   public boolean hasGlobal(final SSymbol name) {
@@ -773,6 +887,9 @@ public class Universe {
   public SClass blockClass;
   public SClass doubleClass;
 
+  // block classes indexed by the number of arguments, i.e., Block1 to Block3
+  private final SClass[] blockClasses = new SClass[4];
+
   public SClass trueClass;
   public SClass falseClass;
 
@@ -781,9 +898,12 @@ public class Universe {
   private String[]                                classPath;
   private boolean                                 dumpBytecodes;
 
+  private int inlineCacheDegree = InlineCache.DEFAULT_DEGREE;
+
   public static final String             pathSeparator;
   public static final String             fileSeparator;
   private final Interpreter              interpreter;
+  private final LookupCache              lookupCache = new LookupCache();
   private final HashMap<String, SSymbol> symbolTable;
 
   // TODO: this is not how it is supposed to be... it is just a hack to cope
@@ -0,0 +1,73 @@
+package som.vmobjects;
+
+import java.lang.invoke.SwitchPoint;
+
+
+/**
+ * A global cache of method lookups, keyed on the receiver class and the
+ * selector, and shared by all classes. Failed lookups are cached as well, so
+ * that repeated doesNotUnderstand sends do not walk the class hierarchy.
+ *
+ * The cache is flushed completely whenever the methods or the superclass of
+ * any class change, which only happens while classes are loaded.
+ */
+public final class LookupCache {
+
+  // must be a power of two
+  private static final int SIZE = 4096;
+
+  private final SClass[]     classes    = new SClass[SIZE];
+  private final SSymbol[]    selectors  = new SSymbol[SIZE];
+  private final SInvokable[] invokables = new SInvokable[SIZE];
+
+  // incremented on every flush, so that inline caches can detect that the
+  // lookups they cached might be stale
+  private int version;
+
+  // invalidated on the next flush, so that call sites of compiled code,
+  // which link to the looked up methods, relink. It is only created when it
+  // is needed, because invalidating it is expensive.
+  private SwitchPoint switchPoint;
+
+  private static int index(final SClass clazz, final SSymbol selector) {
+    int hash = System.identityHashCode(clazz) * 31 + System.identityHashCode(selector);
+    return (hash ^ (hash >>> 16)) & (SIZE - 1);
+  }
+
+  public SInvokable lookup(final SClass clazz, final SSymbol selector) {
+    int i = index(clazz, selector);
+    if (classes[i] == clazz && selectors[i] == selector) {
+      return invokables[i];
+    }
+
+    SInvokable invokable = clazz.lookupInvokableInHierarchy(selector);
+    classes[i] = clazz;
+    selectors[i] = selector;
+    invokables[i] = invokable;
+    return invokable;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  public SwitchPoint getSwitchPoint() {
+    if (switchPoint == null) {
+      switchPoint = new SwitchPoint();
+    }
+    return switchPoint;
+  }
+
+  public void flush() {
+    version += 1;
+    if (switchPoint != null) {
+      SwitchPoint.invalidateAll(new SwitchPoint[] {switchPoint});
+      switchPoint = null;
+    }
+    for (int i = 0; i < SIZE; i++) {
+      classes[i] = null;
+      selectors[i] = null;
+      invokables[i] = null;
+    }
+  }
+}
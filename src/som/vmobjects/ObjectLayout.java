@@ -0,0 +1,97 @@
+package som.vmobjects;
+
+/**
+ * The layout, or shape, of objects. It records for each field the type of
+ * the values that were stored in it for instances of a class, so that
+ * integers and doubles can be stored unboxed.
+ *
+ * A field starts out as uninitialized, becomes a long or double field when
+ * the first value of that type is stored into it, and becomes an object
+ * field once a value of another type is stored. Nil fits every type. The
+ * types only ever become more general. When this happens, the class gets a
+ * new layout and the old one is invalidated. Instances with an invalid
+ * layout migrate to the current layout of their class on their next access.
+ */
+public final class ObjectLayout {
+
+  public static final byte UNINITIALIZED = 0;
+  public static final byte LONG          = 1;
+  public static final byte DOUBLE        = 2;
+  public static final byte OBJECT        = 3;
+
+  // the fields that can be primitive, limited by the bits of the mask that
+  // records which primitive fields are set in an object
+  public static final int MAX_PRIMITIVE_FIELDS = Long.SIZE;
+
+  private final byte[]  storageTypes;
+  private final boolean hasPrimitiveFields;
+  private boolean       valid;
+
+  private ObjectLayout(final byte[] storageTypes) {
+    this.storageTypes = storageTypes;
+    this.valid = true;
+
+    boolean hasPrimitives = false;
+    for (byte type : storageTypes) {
+      hasPrimitives |= type == LONG || type == DOUBLE;
+    }
+    this.hasPrimitiveFields = hasPrimitives;
+  }
+
+  /**
+   * Create the initial layout for the instances of a class.
+   */
+  public static ObjectLayout createForInstances(final int numberOfFields) {
+    byte[] types = new byte[numberOfFields];
+    for (int i = MAX_PRIMITIVE_FIELDS; i < numberOfFields; i++) {
+      types[i] = OBJECT;
+    }
+    return new ObjectLayout(types);
+  }
+
+  /**
+   * Create a layout that stores all fields as objects, and never changes.
+   */
+  public static ObjectLayout createGeneric(final int numberOfFields) {
+    byte[] types = new byte[numberOfFields];
+    for (int i = 0; i < numberOfFields; i++) {
+      types[i] = OBJECT;
+    }
+    return new ObjectLayout(types);
+  }
+
+  public int getNumberOfFields() {
+    return storageTypes.length;
+  }
+
+  public byte getStorageType(final int index) {
+    return storageTypes[index];
+  }
+
+  public boolean hasPrimitiveFields() {
+    return hasPrimitiveFields;
+  }
+
+  public boolean isValid() {
+    return valid;
+  }
+
+  void invalidate() {
+    valid = false;
+  }
+
+  /**
+   * @return a layout in which the given field can hold the given value
+   */
+  ObjectLayout withGeneralizedField(final int index, final SAbstractObject value) {
+    byte[] types = storageTypes.clone();
+    if (types[index] == UNINITIALIZED && value instanceof SInteger) {
+      types[index] = LONG;
+    } else if (types[index] == UNINITIALIZED && value instanceof SDouble) {
+      types[index] = DOUBLE;
+    } else {
+      types[index] = OBJECT;
+    }
+    return new ObjectLayout(types);
+  }
+}
@@ -27,27 +27,184 @@ package som.vmobjects;
 import som.vm.Universe;
 
 
+/**
+ * Arrays store their elements according to a storage strategy. A new array
+ * is empty, i.e., all its elements are nil, and allocates no storage. Once
+ * elements are stored, it is partially empty until every element is set.
+ * If all elements are then integers, doubles, or booleans, they are stored
+ * unboxed in a long[], double[], or boolean[]. Storing an element of another
+ * type generalizes the storage to an array of objects, which is the most
+ * general strategy. Strategies only ever become more general.
+ */
 public class SArray extends SAbstractObject {
 
-  public SArray(final SObject nilObject, long numElements) {
-    indexableFields = new SAbstractObject[(int) numElements];
+  private static final byte EMPTY           = 0;
+  private static final byte PARTIALLY_EMPTY = 1;
+  private static final byte LONG            = 2;
+  private static final byte DOUBLE          = 3;
+  private static final byte BOOLEAN         = 4;
+  private static final byte OBJECT          = 5;
+
+  public SArray(final Universe universe, final long numElements) {
+    this.universe = universe;
+    this.length = (int) numElements;
+    this.strategy = EMPTY;
+  }
 
-    // Clear each and every field by putting nil into them
-    for (int i = 0; i < getNumberOfIndexableFields(); i++) {
-      setIndexableField(i, nilObject);
+  public SAbstractObject getIndexableField(final long index) {
+    switch (strategy) {
+      case EMPTY:
+        checkIndex(index);
+        return universe.nilObject;
+      case PARTIALLY_EMPTY: {
+        SAbstractObject value = ((SAbstractObject[]) storage)[(int) index];
+        return value == null ? universe.nilObject : value;
+      }
+      case LONG:
+        return SInteger.getInteger(((long[]) storage)[(int) index]);
+      case DOUBLE:
+        return new SDouble(((double[]) storage)[(int) index]);
+      case BOOLEAN:
+        return ((boolean[]) storage)[(int) index] ? universe.trueObject : universe.falseObject;
+      default:
+        return ((SAbstractObject[]) storage)[(int) index];
+    }
+  }
+
+  public void setIndexableField(final long index, final SAbstractObject value) {
+    int i = (int) index;
+    switch (strategy) {
+      case EMPTY:
+        checkIndex(index);
+        if (value == universe.nilObject) {
+          return;
+        }
+        storage = new SAbstractObject[length];
+        strategy = PARTIALLY_EMPTY;
+        emptySlots = length;
+        elementType = getStrategyFor(value);
+        setInPartiallyEmpty(i, value);
+        return;
+      case PARTIALLY_EMPTY:
+        setInPartiallyEmpty(i, value);
+        return;
+      case LONG:
+        if (value instanceof SInteger) {
+          ((long[]) storage)[i] = ((SInteger) value).getEmbeddedInteger();
+          return;
+        }
+        break;
+      case DOUBLE:
+        if (value instanceof SDouble) {
+          ((double[]) storage)[i] = ((SDouble) value).getEmbeddedDouble();
+          return;
+        }
+        break;
+      case BOOLEAN:
+        if (value == universe.trueObject || value == universe.falseObject) {
+          ((boolean[]) storage)[i] = value == universe.trueObject;
+          return;
+        }
+        break;
+      default:
+        ((SAbstractObject[]) storage)[i] = value;
+        return;
     }
+
+    // the value does not fit the primitive storage
+    generalizeToObjects();
+    ((SAbstractObject[]) storage)[i] = value;
   }
 
-  public SAbstractObject getIndexableField(long index) {
-    return indexableFields[(int) index];
+  private void setInPartiallyEmpty(final int index, final SAbstractObject value) {
+    SAbstractObject[] elements = (SAbstractObject[]) storage;
+    boolean isNil = value == universe.nilObject;
+
+    if (elements[index] == null) {
+      if (isNil) {
+        return;
+      }
+      emptySlots -= 1;
+    } else if (isNil) {
+      emptySlots += 1;
+    }
+
+    elements[index] = isNil ? null : value;
+    if (!isNil && elementType != OBJECT && getStrategyFor(value) != elementType) {
+      elementType = OBJECT;
+    }
+
+    if (emptySlots == 0) {
+      specialize();
+    }
   }
 
-  public void setIndexableField(long index, SAbstractObject value) {
-    indexableFields[(int) index] = value;
+  /**
+   * Called once all elements of a partially empty array are set, to store
+   * them unboxed if they are all of the same primitive type.
+   */
+  private void specialize() {
+    SAbstractObject[] elements = (SAbstractObject[]) storage;
+    switch (elementType) {
+      case LONG: {
+        long[] longs = new long[length];
+        for (int i = 0; i < length; i++) {
+          longs[i] = ((SInteger) elements[i]).getEmbeddedInteger();
+        }
+        storage = longs;
+        break;
+      }
+      case DOUBLE: {
+        double[] doubles = new double[length];
+        for (int i = 0; i < length; i++) {
+          doubles[i] = ((SDouble) elements[i]).getEmbeddedDouble();
+        }
+        storage = doubles;
+        break;
+      }
+      case BOOLEAN: {
+        boolean[] booleans = new boolean[length];
+        for (int i = 0; i < length; i++) {
+          booleans[i] = elements[i] == universe.trueObject;
+        }
+        storage = booleans;
+        break;
+      }
+      default:
+        break;
+    }
+    strategy = elementType;
+  }
+
+  private void generalizeToObjects() {
+    SAbstractObject[] elements = new SAbstractObject[length];
+    for (int i = 0; i < length; i++) {
+      elements[i] = getIndexableField(i);
+    }
+    storage = elements;
+    strategy = OBJECT;
+  }
+
+  private byte getStrategyFor(final SAbstractObject value) {
+    if (value instanceof SInteger) {
+      return LONG;
+    } else if (value instanceof SDouble) {
+      return DOUBLE;
+    } else if (value == universe.trueObject || value == universe.falseObject) {
+      return BOOLEAN;
+    } else {
+      return OBJECT;
+    }
+  }
+
+  private void checkIndex(final long index) {
+    if (index < 0 || index >= length) {
+      throw new ArrayIndexOutOfBoundsException((int) index);
+    }
   }
 
   public int getNumberOfIndexableFields() {
-    return indexableFields.length;
+    return length;
   }
 
   public SArray copyAndExtendWith(SAbstractObject value, final Universe universe) {
@@ -65,6 +222,11 @@ public class SArray extends SAbstractObject {
   }
 
   protected void copyIndexableFieldsTo(SArray destination) {
+    // Empty arrays have nothing to copy, the destination is all nil already
+    if (strategy == EMPTY) {
+      return;
+    }
+
     // Copy all indexable fields from this array to the destination array
     for (int i = 0; i < getNumberOfIndexableFields(); i++) {
       destination.setIndexableField(i, getIndexableField(i));
@@ -76,6 +238,14 @@ public class SArray extends SAbstractObject {
     return universe.arrayClass;
   }
 
-  // Private array of indexable fields
-  private final SAbstractObject[] indexableFields;
+  private final Universe universe;
+  private final int      length;
+
+  // the elements, their representation depends on the strategy
+  private Object storage;
+  private byte   strategy;
+
+  // only used while the array is partially empty
+  private int  emptySlots;
+  private byte elementType;
 }
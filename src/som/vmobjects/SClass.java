@@ -58,6 +58,10 @@ public class SClass extends SObject {
   public void setSuperClass(final SObject value) {
     // Set the super class by writing to the field with super class index
     superclass = value;
+    universe.getLookupCache().flush();
+
+    // the number of instance fields depends on the super class
+    instanceLayout = null;
   }
 
   public boolean hasSuperClass() {
@@ -85,6 +89,31 @@ public class SClass extends SObject {
     // Set the instance fields by writing to the field with the instance
     // fields index
     instanceFields = value;
+
+    // existing instances keep their layout, it is still valid for them
+    instanceLayout = null;
+  }
+
+  public ObjectLayout getLayoutForInstances() {
+    if (instanceLayout == null) {
+      instanceLayout = ObjectLayout.createForInstances(getNumberOfInstanceFields());
+    }
+    return instanceLayout;
+  }
+
+  /**
+   * Create a layout from the given layout of an instance, in which the field
+   * can hold the value. If it is the current layout for instances, it is
+   * replaced, and all instances will migrate to the new layout.
+   */
+  ObjectLayout generalizeLayout(final ObjectLayout layout, final int index,
+      final SAbstractObject value) {
+    ObjectLayout newLayout = layout.withGeneralizedField(index, value);
+    if (layout == instanceLayout) {
+      instanceLayout.invalidate();
+      instanceLayout = newLayout;
+    }
+    return newLayout;
   }
 
   public SArray getInstanceInvokables() {
@@ -97,6 +126,7 @@ public class SClass extends SObject {
     // Set the instance invokables by writing to the field with the instance
     // invokables index
     instanceInvokables = value;
+    invokablesChanged();
 
     // Make sure this class is the holder of all invokables in the array
     for (int i = 0; i < getNumberOfInstanceInvokables(); i++) {
@@ -120,6 +150,14 @@ public class SClass extends SObject {
 
     // Set the instance method with the given index to the given value
     getInstanceInvokables().setIndexableField(index, (SAbstractObject) value);
+    invokablesChanged();
+  }
+
+  private void invokablesChanged() {
+    // the table only holds invokables of this class, but inherited ones
+    // might be cached globally for subclasses
+    invokablesTable.clear();
+    universe.getLookupCache().flush();
   }
 
   @Override
@@ -129,6 +167,10 @@ public class SClass extends SObject {
   }
 
   public SInvokable lookupInvokable(final SSymbol signature) {
+    return universe.getLookupCache().lookup(this, signature);
+  }
+
+  SInvokable lookupInvokableInHierarchy(final SSymbol signature) {
     SInvokable invokable;
 
     // Lookup invokable and return if found
@@ -151,11 +193,7 @@ public class SClass extends SObject {
 
     // Traverse the super class chain by calling lookup on the super class
     if (hasSuperClass()) {
-      invokable = ((SClass) getSuperClass()).lookupInvokable(signature);
-      if (invokable != null) {
-        invokablesTable.put(signature, invokable);
-        return invokable;
-      }
+      return ((SClass) getSuperClass()).lookupInvokableInHierarchy(signature);
     }
 
     // Invokable not found
@@ -278,7 +316,11 @@ public class SClass extends SObject {
   private SArray  instanceInvokables;
   private SArray  instanceFields;
 
-  // Mapping of symbols to invokables
+  // the current layout of instances of this class
+  private ObjectLayout instanceLayout;
+
+  // Mapping of symbols to the invokables of this class, inherited ones are
+  // cached in the global lookup cache
   private final HashMap<SSymbol, SInvokable> invokablesTable;
 
   // Static field indices and number of class fields
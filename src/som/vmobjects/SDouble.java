@@ -38,6 +38,26 @@ public final class SDouble extends SNumber {
     embeddedDouble = value;
   }
 
+  /**
+   * Doubles are identical if they have the same value, because fields and
+   * arrays might store them unboxed, and reading them creates a new object.
+   * For the same reason, their hash code depends on the value only.
+   */
+  public boolean isIdenticalTo(final SAbstractObject other) {
+    return this == other || equals(other);
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    return other instanceof SDouble && Double.doubleToRawLongBits(
+        ((SDouble) other).embeddedDouble) == Double.doubleToRawLongBits(embeddedDouble);
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(Double.doubleToRawLongBits(embeddedDouble));
+  }
+
   public double getEmbeddedDouble() {
     // Get the embedded double
     return embeddedDouble;
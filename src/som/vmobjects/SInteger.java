@@ -26,8 +26,6 @@
 package som.vmobjects;
 
 import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.Map;
 
 import som.vm.Universe;
 
@@ -36,13 +34,29 @@ public final class SInteger extends SNumber {
 
   /**
    * Language convention requires integers up to this value to be identical.
+   * Only the hot range below is kept as canonical instances. For all other
+   * values identity is established by value, see {@link #isIdenticalTo}.
    */
   private static final long MAX_IDENTICAL_INT = 1073741823L;
 
   /**
-   * Cache to store integers up to {@link #MAX_IDENTICAL_INT}.
+   * Bounds of the range of integers that are preallocated in {@link #CACHE}.
    */
-  private static Map<Long, SInteger> CACHE = new HashMap<>();
+  private static final long MIN_CACHED_INT = -1024L;
+  private static final long MAX_CACHED_INT = 65535L;
+
+  /**
+   * Dense table of the integers from {@link #MIN_CACHED_INT} to
+   * {@link #MAX_CACHED_INT}, indexed by value minus {@link #MIN_CACHED_INT}.
+   */
+  private static final SInteger[] CACHE =
+      new SInteger[(int) (MAX_CACHED_INT - MIN_CACHED_INT + 1)];
+
+  static {
+    for (int i = 0; i < CACHE.length; i++) {
+      CACHE[i] = new SInteger(i + MIN_CACHED_INT);
+    }
+  }
 
   // Private variable holding the embedded integer
   private final long embeddedInteger;
@@ -52,10 +66,33 @@ public final class SInteger extends SNumber {
   }
 
   public static SInteger getInteger(final long value) {
-    if (value > MAX_IDENTICAL_INT) {
-      return new SInteger(value);
+    if (value >= MIN_CACHED_INT && value <= MAX_CACHED_INT) {
+      return CACHE[(int) (value - MIN_CACHED_INT)];
     }
-    return CACHE.computeIfAbsent(value, SInteger::new);
+    return new SInteger(value);
+  }
+
+  /**
+   * Integers up to {@link #MAX_IDENTICAL_INT} are identical if they have the
+   * same value, independent of whether they are the same Java object.
+   */
+  public boolean isIdenticalTo(final SAbstractObject other) {
+    if (this == other) {
+      return true;
+    }
+    return embeddedInteger <= MAX_IDENTICAL_INT && other instanceof SInteger
+        && ((SInteger) other).embeddedInteger == embeddedInteger;
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    return other instanceof SInteger
+        && ((SInteger) other).embeddedInteger == embeddedInteger;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(embeddedInteger);
   }
 
   public long getEmbeddedInteger() {
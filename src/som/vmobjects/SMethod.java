@@ -26,21 +26,32 @@ package som.vmobjects;
 
 import java.util.List;
 
+import som.interpreter.CompiledCode;
 import som.interpreter.Frame;
+import som.interpreter.InlineCache;
 import som.interpreter.Interpreter;
 import som.vm.Universe;
 
 
 public class SMethod extends SAbstractObject implements SInvokable {
 
+  // Kinds of trivial methods, which send sites execute directly without
+  // activating them. A getter returns a field, a setter stores its argument
+  // into a field and returns self, and the others return their constant or
+  // self.
+  public static final byte NOT_TRIVIAL      = 0;
+  public static final byte TRIVIAL_GETTER   = 1;
+  public static final byte TRIVIAL_SETTER   = 2;
+  public static final byte TRIVIAL_CONSTANT = 3;
+  public static final byte TRIVIAL_SELF     = 4;
+
   public SMethod(final SSymbol signature, final int numberOfBytecodes,
       final int numberOfLocals, final int maxNumStackElements,
       final List<SAbstractObject> literals) {
     this.signature = signature;
     this.numberOfLocals = numberOfLocals;
     this.bytecodes = new byte[numberOfBytecodes];
-    inlineCacheClass = new SClass[numberOfBytecodes];
-    inlineCacheInvokable = new SInvokable[numberOfBytecodes];
+    inlineCaches = new InlineCache[numberOfBytecodes];
     maximumNumberOfStackElements = maxNumStackElements;
     this.literals =
         literals == null ? null : literals.toArray(new SAbstractObject[literals.size()]);
@@ -90,6 +101,14 @@ public class SMethod extends SAbstractObject implements SInvokable {
     return literals[bytecodes[bytecodeIndex + 1]];
   }
 
+  public int getNumberOfLiterals() {
+    return literals == null ? 0 : literals.length;
+  }
+
+  public SAbstractObject getLiteral(final int index) {
+    return literals[index];
+  }
+
   public int getNumberOfArguments() {
     // Get the number of arguments of this method
     return getSignature().getNumberOfSignatureArguments();
@@ -105,11 +124,118 @@ public class SMethod extends SAbstractObject implements SInvokable {
     return bytecodes[index];
   }
 
+  public byte[] getBytecodes() {
+    // Get the bytecode array itself, for the interpreter loop
+    return bytecodes;
+  }
+
   public void setBytecode(final int index, final byte value) {
     // Set the bytecode at the given index to the given value
     bytecodes[index] = value;
   }
 
+  public boolean usesContext() {
+    return usesContext;
+  }
+
+  public void setUsesContext(final boolean value) {
+    usesContext = value;
+  }
+
+  public byte getTrivialKind() {
+    return trivialKind;
+  }
+
+  public int getTrivialFieldIndex() {
+    return trivialFieldIndex;
+  }
+
+  public SAbstractObject getTrivialConstant() {
+    return trivialConstant;
+  }
+
+  public void setTrivial(final byte kind, final int fieldIndex) {
+    trivialKind = kind;
+    trivialFieldIndex = fieldIndex;
+  }
+
+  public void setTrivialConstant(final SAbstractObject constant) {
+    trivialKind = TRIVIAL_CONSTANT;
+    trivialConstant = constant;
+  }
+
+  public CompiledCode getCompiledCode() {
+    return compiledCode;
+  }
+
+  public void setCompiledCode(final CompiledCode code) {
+    compiledCode = code;
+  }
+
+  public boolean isCompilable() {
+    return compilable;
+  }
+
+  /**
+   * Mark the method as one that can not be compiled, which is not attempted
+   * again.
+   */
+  public void setNotCompilable() {
+    compilable = false;
+  }
+
+  /**
+   * Count an invocation of the method by the interpreter, or by its compiled
+   * code if invocations are counted there. The count saturates instead of
+   * overflowing.
+   *
+   * @return the number of invocations so far
+   */
+  public int incrementInvocationCount() {
+    if (invocationCount < Integer.MAX_VALUE) {
+      invocationCount += 1;
+    }
+    return invocationCount;
+  }
+
+  public int getInvocationCount() {
+    return invocationCount;
+  }
+
+  /**
+   * Count a backward jump to the header of a loop of the method by the
+   * interpreter. The count saturates instead of overflowing.
+   *
+   * @param loopHeader the bytecode index that the jump targets
+   * @return the number of backward jumps to the header so far
+   */
+  public int incrementBackEdgeCount(final int loopHeader) {
+    if (backEdgeCounts == null) {
+      backEdgeCounts = new int[bytecodes.length];
+    }
+    if (backEdgeCounts[loopHeader] < Integer.MAX_VALUE) {
+      backEdgeCounts[loopHeader] += 1;
+    }
+    return backEdgeCounts[loopHeader];
+  }
+
+  public int getBackEdgeCount(final int loopHeader) {
+    return backEdgeCounts == null ? 0 : backEdgeCounts[loopHeader];
+  }
+
+  /**
+   * @return the number of backward jumps of all loops of the method
+   */
+  public long getBackEdgeCount() {
+    long count = 0;
+    if (backEdgeCounts != null) {
+      for (int c : backEdgeCounts) {
+        count += c;
+      }
+    }
+    return count;
+  }
+
   @Override
   public void invoke(final Frame frame, final Interpreter interpreter) {
     // Allocate and push a new frame on the interpreter stack
@@ -123,18 +249,12 @@ public class SMethod extends SAbstractObject implements SInvokable {
         + getSignature().toString() + ")";
   }
 
-  public SClass getInlineCacheClass(final int bytecodeIndex) {
-    return inlineCacheClass[bytecodeIndex];
-  }
-
-  public SInvokable getInlineCacheInvokable(final int bytecodeIndex) {
-    return inlineCacheInvokable[bytecodeIndex];
+  public InlineCache getInlineCache(final int bytecodeIndex) {
+    return inlineCaches[bytecodeIndex];
   }
 
-  public void setInlineCache(final int bytecodeIndex, final SClass receiverClass,
-      final SInvokable invokable) {
-    inlineCacheClass[bytecodeIndex] = receiverClass;
-    inlineCacheInvokable[bytecodeIndex] = invokable;
+  public void setInlineCache(final int bytecodeIndex, final InlineCache cache) {
+    inlineCaches[bytecodeIndex] = cache;
   }
 
   @Override
@@ -143,9 +263,8 @@ public class SMethod extends SAbstractObject implements SInvokable {
   }
 
   // Private variable holding byte array of bytecodes
-  private final byte[]       bytecodes;
-  private final SClass[]     inlineCacheClass;
-  private final SInvokable[] inlineCacheInvokable;
+  private final byte[]        bytecodes;
+  private final InlineCache[] inlineCaches;
 
   private final SAbstractObject[] literals;
 
@@ -155,4 +274,23 @@ public class SMethod extends SAbstractObject implements SInvokable {
   // Meta information
   private final int numberOfLocals;
   private final int maximumNumberOfStackElements;
+
+  // whether this block accesses the frames it is nested in, and thus needs
+  // the frame in which it is created as its context
+  private boolean usesContext = true;
+
+  // whether the method is trivial, and the field it accesses or the
+  // constant it returns if any
+  private byte            trivialKind = NOT_TRIVIAL;
+  private int             trivialFieldIndex;
+  private SAbstractObject trivialConstant;
+
+  // the number of invocations, and of backward jumps to each loop header,
+  // with which the tiering policy of the interpreter decides when to
+  // compile the method, whether it can be compiled, and the compiled code
+  // if any
+  private int          invocationCount;
+  private int[]        backEdgeCounts;
+  private boolean      compilable = true;
+  private CompiledCode compiledCode;
 }
@@ -6,20 +6,30 @@ import som.vm.Universe;
 public class SObject extends SAbstractObject {
 
   public SObject(final SObject nilObject) {
-    fields = new SAbstractObject[getDefaultNumberOfFields()];
+    this(numberOfObjectFields, nilObject);
+  }
+
+  public SObject(final int numberOfFields, final SObject nilObject) {
+    layout = ObjectLayout.createGeneric(numberOfFields);
+    fields = new SAbstractObject[numberOfFields];
 
     // Clear each and every field by putting nil into them
     for (int i = 0; i < getNumberOfFields(); i++) {
-      setField(i, nilObject);
+      fields[i] = nilObject;
     }
   }
 
-  public SObject(final int numberOfFields, final SObject nilObject) {
-    fields = new SAbstractObject[numberOfFields];
+  public SObject(final SClass instanceClass, final SObject nilObject) {
+    this.clazz = instanceClass;
+    layout = instanceClass.getLayoutForInstances();
+    fields = new SAbstractObject[layout.getNumberOfFields()];
+    if (layout.hasPrimitiveFields()) {
+      primitiveFields = new long[fields.length];
+    }
 
     // Clear each and every field by putting nil into them
     for (int i = 0; i < getNumberOfFields(); i++) {
-      setField(i, nilObject);
+      fields[i] = nilObject;
     }
   }
 
@@ -54,12 +64,119 @@ public class SObject extends SAbstractObject {
 
   public SAbstractObject getField(final long index) {
     // Get the field with the given index
-    return fields[(int) index];
+    if (!layout.isValid()) {
+      migrateTo(clazz.getLayoutForInstances());
+    }
+    return readField(layout, (int) index);
+  }
+
+  /**
+   * @return whether the field holds an unboxed double, which can be read
+   *         with {@link #getDoubleField} without creating an SDouble. An
+   *         invalidated layout still describes the current values.
+   */
+  public boolean isDoubleField(final int index) {
+    return layout.getStorageType(index) == ObjectLayout.DOUBLE && isPrimitiveSet(index);
+  }
+
+  public double getDoubleField(final int index) {
+    return Double.longBitsToDouble(primitiveFields[index]);
   }
 
   public void setField(final long index, final SAbstractObject value) {
     // Set the field with the given index to the given value
-    fields[(int) index] = value;
+    if (!layout.isValid()) {
+      migrateTo(clazz.getLayoutForInstances());
+    }
+
+    int i = (int) index;
+    if (writeField(layout, i, value)) {
+      return;
+    }
+
+    // the value does not fit the type of the field, generalize the layout
+    migrateTo(clazz.generalizeLayout(layout, i, value));
+    writeField(layout, i, value);
+  }
+
+  private SAbstractObject readField(final ObjectLayout fromLayout, final int index) {
+    switch (fromLayout.getStorageType(index)) {
+      case ObjectLayout.LONG:
+        if (isPrimitiveSet(index)) {
+          return SInteger.getInteger(primitiveFields[index]);
+        }
+        break;
+      case ObjectLayout.DOUBLE:
+        if (isPrimitiveSet(index)) {
+          return new SDouble(Double.longBitsToDouble(primitiveFields[index]));
+        }
+        break;
+      default:
+        break;
+    }
+
+    // fields of other types than object that are not set hold nil here
+    return fields[index];
+  }
+
+  /**
+   * @return false, if the value does not fit the type of the field
+   */
+  private boolean writeField(final ObjectLayout toLayout, final int index,
+      final SAbstractObject value) {
+    switch (toLayout.getStorageType(index)) {
+      case ObjectLayout.OBJECT:
+        fields[index] = value;
+        return true;
+      case ObjectLayout.LONG:
+        if (value instanceof SInteger) {
+          primitiveFields[index] = ((SInteger) value).getEmbeddedInteger();
+          primitiveSetMask |= 1L << index;
+          return true;
+        }
+        break;
+      case ObjectLayout.DOUBLE:
+        if (value instanceof SDouble) {
+          primitiveFields[index] =
+              Double.doubleToRawLongBits(((SDouble) value).getEmbeddedDouble());
+          primitiveSetMask |= 1L << index;
+          return true;
+        }
+        break;
+      default:
+        break;
+    }
+
+    // a field that is not an object field only ever holds nil in the array
+    // of object fields, so this is a check for nil, which fits every type
+    if (value == fields[index]) {
+      primitiveSetMask &= ~(1L << index);
+      return true;
+    }
+    return false;
+  }
+
+  private boolean isPrimitiveSet(final int index) {
+    return (primitiveSetMask & (1L << index)) != 0;
+  }
+
+  private void migrateTo(final ObjectLayout newLayout) {
+    SAbstractObject[] values = new SAbstractObject[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      values[i] = readField(layout, i);
+    }
+
+    layout = newLayout;
+    primitiveSetMask = 0;
+    if (newLayout.hasPrimitiveFields() && primitiveFields == null) {
+      primitiveFields = new long[fields.length];
+    }
+
+    // the types of the new layout are at least as general as the old ones
+    for (int i = 0; i < fields.length; i++) {
+      boolean fits = writeField(newLayout, i, values[i]);
+      assert fits;
+    }
   }
 
   @Override
@@ -70,18 +187,22 @@ public class SObject extends SAbstractObject {
   @Override
   public String toString() {
     if (clazz.getName().getEmbeddedString().equals("SObject")) {
-      if (fields[1] instanceof SObject) {
-        SObject somClazz = (SObject) fields[1];
-        SObject nameSymbolObj = (SObject) somClazz.fields[4];
-        SString nameString = (SString) nameSymbolObj.fields[0];
+      if (getField(1) instanceof SObject) {
+        SObject somClazz = (SObject) getField(1);
+        SObject nameSymbolObj = (SObject) somClazz.getField(4);
+        SString nameString = (SString) nameSymbolObj.getField(0);
         return "SomSom: a " + nameString.getEmbeddedString();
       }
     }
     return "a " + getSOMClass(Universe.current()).getName().getEmbeddedString();
   }
 
-  // Private array of fields
+  // Private array of fields, and the storage for unboxed long and double
+  // fields, which is only allocated if the layout has such fields
   private final SAbstractObject[] fields;
+  private long[]                  primitiveFields;
+  private long                    primitiveSetMask;
+  private ObjectLayout            layout;
   private SClass                  clazz;
 
   // Static field indices and number of object fields
@@ -0,0 +1,54 @@
+package som.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import som.compiler.ProgramDefinitionError;
+import som.vm.Universe;
+import som.vmobjects.SInteger;
+
+
+/**
+ * Methods compiled to JVM bytecode, which are compiled on their first
+ * invocation here, including the paths on which the interpreter continues
+ * their activations.
+ */
+@RunWith(Parameterized.class)
+public class CompiledCodeTests {
+
+  @Parameters(name = "{0} [{index}]")
+  public static Iterable<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+        {"testArithmetic", 10000},
+        {"testOverflow", 1},
+        {"testNonBooleanCondition", 48},
+        {"testNonLocalReturn", 16},
+        {"testMegamorphicSend", 5},
+        {"testDeepRecursion", 20000},
+    });
+  }
+
+  private final String testSelector;
+  private final int    expectedResult;
+
+  public CompiledCodeTests(final String testSelector, final int expectedResult) {
+    this.testSelector = testSelector;
+    this.expectedResult = expectedResult;
+  }
+
+  @Test
+  public void testCompiledCode() throws ProgramDefinitionError {
+    Universe u = new Universe(true);
+    u.setupClassPath("Smalltalk:tests/som/tests");
+    u.getInterpreter().setCompilationThreshold(1);
+
+    SInteger actualResult = (SInteger) u.interpret("CompiledMethods", testSelector);
+    assertEquals(expectedResult, actualResult.getEmbeddedInteger());
+  }
+}
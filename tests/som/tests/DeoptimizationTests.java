@@ -0,0 +1,53 @@
+package som.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import som.compiler.ProgramDefinitionError;
+import som.vm.Universe;
+import som.vmobjects.SInteger;
+
+
+/**
+ * Compiled code whose assumptions break while its loops run, after which
+ * the activations continue in the interpreter, and their methods are
+ * compiled again.
+ */
+@RunWith(Parameterized.class)
+public class DeoptimizationTests {
+
+  @Parameters(name = "{0} [{index}]")
+  public static Iterable<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+        {"testRebindGlobalInLoop", 151},
+        {"testRebindGlobalInCallee", 151},
+        {"testRebindGlobalTwice", 1561},
+        {"testNonBooleanConditionInLoop", 5050},
+    });
+  }
+
+  private final String testSelector;
+  private final int    expectedResult;
+
+  public DeoptimizationTests(final String testSelector, final int expectedResult) {
+    this.testSelector = testSelector;
+    this.expectedResult = expectedResult;
+  }
+
+  @Test
+  public void testDeoptimization() throws ProgramDefinitionError {
+    Universe u = new Universe(true);
+    u.setupClassPath("Smalltalk:tests/som/tests");
+    u.getInterpreter().setCompilationThreshold(1);
+    u.getInterpreter().setOnStackReplacementThreshold(10);
+
+    SInteger actualResult = (SInteger) u.interpret("DeoptimizationMethods", testSelector);
+    assertEquals(expectedResult, actualResult.getEmbeddedInteger());
+  }
+}
@@ -0,0 +1,50 @@
+package som.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import som.compiler.ProgramDefinitionError;
+import som.vm.Universe;
+import som.vmobjects.SInteger;
+
+
+/**
+ * Doubles stored unboxed in fields and arrays, which are computed on
+ * without boxing them, and keep their identity and hash code when read.
+ */
+@RunWith(Parameterized.class)
+public class DoubleFieldTests {
+
+  @Parameters(name = "{0} [{index}]")
+  public static Iterable<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+        {"testFieldArithmetic", 5},
+        {"testFieldComparison", 1},
+        {"testFieldIdentity", 1},
+        {"testArrayElementIdentity", 1},
+    });
+  }
+
+  private final String testSelector;
+  private final int    expectedResult;
+
+  public DoubleFieldTests(final String testSelector, final int expectedResult) {
+    this.testSelector = testSelector;
+    this.expectedResult = expectedResult;
+  }
+
+  @Test
+  public void testDoubleFields() throws ProgramDefinitionError {
+    Universe u = new Universe(true);
+    u.setupClassPath("Smalltalk:tests/som/tests");
+
+    SInteger actualResult = (SInteger) u.interpret("DoubleFieldMethods", testSelector);
+    assertEquals(expectedResult, actualResult.getEmbeddedInteger());
+  }
+}
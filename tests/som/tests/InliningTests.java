@@ -0,0 +1,67 @@
+package som.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import som.compiler.ProgramDefinitionError;
+import som.vm.Universe;
+import som.vmobjects.SInteger;
+
+
+/**
+ * Loops whose blocks are inlined, with locals that need a fresh value in
+ * each iteration, and conditions that are not booleans, in the interpreter
+ * and in compiled code.
+ */
+@RunWith(Parameterized.class)
+public class InliningTests {
+
+  @Parameters(name = "{0} [{index}]")
+  public static Iterable<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+        {"testBlocksInWhileLoop", 10},
+        {"testFreshLocalInWhileLoop", 3},
+        {"testBlocksInIfTrueInWhileLoop", 1},
+        {"testNonBooleanConditionEndingLoop", 1},
+        {"testNonBooleanConditionContinuingLoop", 12},
+        {"testFreshLocalInCountedLoop", 3},
+        {"testAssignedArgumentInCountedLoop", 5},
+        {"testCountedLoopInIfTrue", 10},
+        {"testCountedLoopInWhileLoop", 13},
+        {"testNestedCountedLoops", 66},
+    });
+  }
+
+  private final String testSelector;
+  private final int    expectedResult;
+
+  public InliningTests(final String testSelector, final int expectedResult) {
+    this.testSelector = testSelector;
+    this.expectedResult = expectedResult;
+  }
+
+  private void run(final int compilationThreshold) throws ProgramDefinitionError {
+    Universe u = new Universe(true);
+    u.setupClassPath("Smalltalk:tests/som/tests");
+    u.getInterpreter().setCompilationThreshold(compilationThreshold);
+
+    SInteger actualResult = (SInteger) u.interpret("InliningMethods", testSelector);
+    assertEquals(expectedResult, actualResult.getEmbeddedInteger());
+  }
+
+  @Test
+  public void testInterpreted() throws ProgramDefinitionError {
+    run(0);
+  }
+
+  @Test
+  public void testCompiled() throws ProgramDefinitionError {
+    run(1);
+  }
+}
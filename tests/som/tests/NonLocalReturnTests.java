@@ -0,0 +1,52 @@
+package som.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import som.compiler.ProgramDefinitionError;
+import som.vm.Universe;
+import som.vmobjects.SInteger;
+
+
+/**
+ * Non-local returns from blocks, in particular from blocks whose home context
+ * was already returned from or unwound by another non-local return, which
+ * must send escapedBlock: to the receiver.
+ */
+@RunWith(Parameterized.class)
+public class NonLocalReturnTests {
+
+  @Parameters(name = "{0} [{index}]")
+  public static Iterable<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+        {"testEscapedBlock", 7},
+        {"testEscapedBlockWithArgument", 8},
+        {"testDeepNonLocalReturn", 5},
+        {"testUnwoundHomeIsEscaped", 7},
+        {"testReturnAfterUnwinding", 7},
+    });
+  }
+
+  private final String testSelector;
+  private final int    expectedResult;
+
+  public NonLocalReturnTests(final String testSelector, final int expectedResult) {
+    this.testSelector = testSelector;
+    this.expectedResult = expectedResult;
+  }
+
+  @Test
+  public void testNonLocalReturn() throws ProgramDefinitionError {
+    Universe u = new Universe(true);
+    u.setupClassPath("Smalltalk:tests/som/tests");
+
+    SInteger actualResult = (SInteger) u.interpret("EscapedBlocks", testSelector);
+    assertEquals(expectedResult, actualResult.getEmbeddedInteger());
+  }
+}
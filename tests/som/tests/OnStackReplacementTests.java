@@ -0,0 +1,53 @@
+package som.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import som.compiler.ProgramDefinitionError;
+import som.vm.Universe;
+import som.vmobjects.SInteger;
+
+
+/**
+ * Activations whose loops run for long, which continue in compiled code
+ * after a few iterations here, including loops whose frames can not be
+ * replaced because blocks capture them.
+ */
+@RunWith(Parameterized.class)
+public class OnStackReplacementTests {
+
+  @Parameters(name = "{0} [{index}]")
+  public static Iterable<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+        {"testWhileLoop", 500500},
+        {"testCountedLoop", 3003},
+        {"testStackAtLoopEntry", 6051},
+        {"testNonLocalReturnThroughLoop", 42},
+        {"testCapturedFrame", 5050},
+    });
+  }
+
+  private final String testSelector;
+  private final int    expectedResult;
+
+  public OnStackReplacementTests(final String testSelector, final int expectedResult) {
+    this.testSelector = testSelector;
+    this.expectedResult = expectedResult;
+  }
+
+  @Test
+  public void testOnStackReplacement() throws ProgramDefinitionError {
+    Universe u = new Universe(true);
+    u.setupClassPath("Smalltalk:tests/som/tests");
+    u.getInterpreter().setOnStackReplacementThreshold(10);
+
+    SInteger actualResult = (SInteger) u.interpret("LoopMethods", testSelector);
+    assertEquals(expectedResult, actualResult.getEmbeddedInteger());
+  }
+}
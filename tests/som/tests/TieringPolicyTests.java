@@ -0,0 +1,111 @@
+package som.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import som.compiler.ProgramDefinitionError;
+import som.interpreter.CompiledCode;
+import som.interpreter.Frame;
+import som.interpreter.ThresholdTieringPolicy;
+import som.interpreter.TieringPolicy;
+import som.vm.Universe;
+import som.vmobjects.SAbstractObject;
+import som.vmobjects.SClass;
+import som.vmobjects.SInteger;
+import som.vmobjects.SMethod;
+
+
+/**
+ * The tier in which methods end, and the counts with which the tiering
+ * policy decides it.
+ */
+public class TieringPolicyTests {
+
+  private Universe universe;
+
+  private SMethod run(final TieringPolicy policy) throws ProgramDefinitionError {
+    universe = new Universe(true);
+    universe.setupClassPath("Smalltalk:tests/som/tests");
+    universe.getInterpreter().setTieringPolicy(policy);
+
+    SInteger actualResult = (SInteger) universe.interpret("LoopMethods", "testWhileLoop");
+    assertEquals(500500, actualResult.getEmbeddedInteger());
+
+    SClass loopMethods = (SClass) universe.getGlobal(universe.symbolFor("LoopMethods"));
+    return (SMethod) loopMethods.getSOMClass().lookupInvokable(universe.symbolFor("sumTo:"));
+  }
+
+  @Test
+  public void testInterpreter() throws ProgramDefinitionError {
+    SMethod method = run(new ThresholdTieringPolicy(false, 0, 0));
+    assertNull(method.getCompiledCode());
+    assertEquals(1, method.getInvocationCount());
+    assertEquals(1000, method.getBackEdgeCount());
+  }
+
+  @Test
+  public void testOnStackReplacement() throws ProgramDefinitionError {
+    SMethod method = run(new ThresholdTieringPolicy(true, 1000, 10));
+    assertNotNull(method.getCompiledCode());
+    assertEquals(10, method.getBackEdgeCount());
+  }
+
+  @Test
+  public void testNoLoopEntry() throws ProgramDefinitionError {
+    SMethod method = run(new ThresholdTieringPolicy(true, 1000, 10));
+    CompiledCode code = method.getCompiledCode();
+    SAbstractObject[] state = new SAbstractObject[Frame.getFrameSize(method)];
+    assertNull(code.invokeFrom(state, 0));
+  }
+
+  @Test
+  public void testCompilationAfterInvalidation() throws ProgramDefinitionError {
+    universe = new Universe(true);
+    universe.setupClassPath("Smalltalk:tests/som/tests");
+    universe.getInterpreter().setTieringPolicy(new ThresholdTieringPolicy(true, 10, 10));
+
+    SInteger actualResult =
+        (SInteger) universe.interpret("DeoptimizationMethods", "testRebindGlobalInCallee");
+    assertEquals(151, actualResult.getEmbeddedInteger());
+
+    // compiled on its tenth invocation, and invalidated later, after which
+    // the count is kept, and the next invocation compiles it again
+    SClass methods = (SClass) universe.getGlobal(universe.symbolFor("DeoptimizationMethods"));
+    SMethod method =
+        (SMethod) methods.getSOMClass().lookupInvokable(universe.symbolFor("stepAt:"));
+    assertNotNull(method.getCompiledCode());
+    assertTrue(method.getCompiledCode().isValid());
+    assertEquals(11, method.getInvocationCount());
+  }
+
+  @Test
+  public void testCustomPolicy() throws ProgramDefinitionError {
+    SMethod method = run(new TieringPolicy() {
+      @Override
+      public boolean shouldQuicken(final SMethod m) {
+        return true;
+      }
+
+      @Override
+      public boolean shouldCompile(final SMethod m) {
+        return m.getSignature().getEmbeddedString().equals("sumTo:");
+      }
+
+      @Override
+      public boolean shouldCompileLoop(final SMethod m, final int loopHeader) {
+        return false;
+      }
+    });
+    assertNotNull(method.getCompiledCode());
+    assertEquals(0, method.getBackEdgeCount());
+
+    SClass loopMethods = (SClass) universe.getGlobal(universe.symbolFor("LoopMethods"));
+    SMethod test = (SMethod) loopMethods.getSOMClass().lookupInvokable(
+        universe.symbolFor("testWhileLoop"));
+    assertNull(test.getCompiledCode());
+  }
+}